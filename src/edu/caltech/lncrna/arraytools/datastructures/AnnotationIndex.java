@@ -0,0 +1,234 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+
+/**
+ * An immutable collection of annotations indexed for overlap queries.
+ * <p>
+ * This class answers the same queries as
+ * {@link edu.caltech.lncrna.bio.datastructures.GenomeTree}, but stores the
+ * bodies of its annotations in an {@link IntervalIndex} rather than in a
+ * red-black tree. It is intended for annotation sets that are loaded once and
+ * then only queried. Like <code>GenomeTree</code>, it does not store
+ * duplicate annotations.
+ * <p>
+ * Each annotation is identified by its position in this collection, which is
+ * the ID that {@link #forEachBodyOverlapper(Annotated, IntConsumer)} reports.
+ *
+ * @param <T> the type of annotation
+ */
+public final class AnnotationIndex<T extends Annotated> extends AbstractCollection<T> {
+
+    private final List<T> annotations;
+    private final IntervalIndex index;
+
+    private AnnotationIndex(List<T> annotations, IntervalIndex index) {
+        this.annotations = Collections.unmodifiableList(annotations);
+        this.index = index;
+    }
+
+    public static <T extends Annotated> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Indexes the given annotations. The result is the same as adding them
+     * in order to a {@link Builder}, but the annotations are partitioned by
+     * reference, and the duplicates and intervals of each reference are
+     * handled as a separate task.
+     *
+     * @param annotations the annotations, in a list with fast random access
+     * @param executor runs the tasks, or null to run them on the calling
+     * thread
+     */
+    public static <T extends Annotated> AnnotationIndex<T> of(
+            List<? extends T> annotations, ExecutorService executor) {
+        Map<String, IntArrayList> partitions = new HashMap<>();
+        String ref = null;
+        IntArrayList partition = null;
+        for (int i = 0; i < annotations.size(); i++) {
+            String r = annotations.get(i).getReferenceName();
+            if (!r.equals(ref)) {
+                ref = r;
+                partition = partitions.computeIfAbsent(r, x -> new IntArrayList());
+            }
+            partition.add(i);
+        }
+
+        // Equal annotations are on the same reference, so each partition can
+        // be checked for duplicates on its own.
+        boolean[] duplicate = new boolean[annotations.size()];
+        List<Callable<Void>> tasks = new ArrayList<>(partitions.size());
+        for (IntArrayList positions : partitions.values()) {
+            tasks.add(() -> {
+                Set<T> seen = new HashSet<>(positions.size() * 4 / 3 + 1);
+                for (int j = 0; j < positions.size(); j++) {
+                    int i = positions.get(j);
+                    if (!seen.add(annotations.get(i))) {
+                        duplicate[i] = true;
+                    }
+                }
+                return null;
+            });
+        }
+        Tasks.invokeAll(executor, tasks);
+
+        List<T> kept = new ArrayList<>(annotations.size());
+        IntervalIndex.Builder index = IntervalIndex.builder();
+        for (int i = 0; i < annotations.size(); i++) {
+            if (!duplicate[i]) {
+                T a = annotations.get(i);
+                kept.add(a);
+                index.add(a.getReferenceName(), a.getStart(), a.getEnd());
+            }
+        }
+        return new AnnotationIndex<>(kept, index.build(executor));
+    }
+
+    /**
+     * Returns the annotation with the given ID.
+     */
+    public T get(int id) {
+        return annotations.get(id);
+    }
+
+    /**
+     * Returns the index of the bodies of these annotations. The ID of each
+     * interval is the ID of its annotation.
+     */
+    IntervalIndex getIntervalIndex() {
+        return index;
+    }
+
+    @Override
+    public int size() {
+        return annotations.size();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return annotations.iterator();
+    }
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return annotations.spliterator();
+    }
+
+    /**
+     * Returns an iterator over the annotations that overlap the given
+     * annotation, taking blocks into account.
+     */
+    public Iterator<T> overlappers(Annotated a) {
+        List<T> rtrn = new ArrayList<>();
+        forEachBodyOverlapper(a, id -> {
+            T x = annotations.get(id);
+            if (x.overlaps(a)) {
+                rtrn.add(x);
+            }
+        });
+        return rtrn.iterator();
+    }
+
+    /**
+     * Returns an iterator over the annotations whose bodies overlap the body
+     * of the given annotation.
+     */
+    public Iterator<T> bodyOverlappers(Annotated a) {
+        List<T> rtrn = new ArrayList<>();
+        forEachBodyOverlapper(a, id -> rtrn.add(annotations.get(id)));
+        return rtrn.iterator();
+    }
+
+    /**
+     * Passes the ID of every annotation whose body overlaps the body of the
+     * given annotation to the given action.
+     */
+    public void forEachBodyOverlapper(Annotated a, IntConsumer action) {
+        index.forEachOverlapper(a.getReferenceName(), a.getStart(), a.getEnd(), action);
+    }
+
+    /**
+     * Returns the number of annotations that overlap the given annotation,
+     * taking blocks into account.
+     */
+    public int numOverlappers(Annotated a) {
+        int[] count = new int[1];
+        forEachBodyOverlapper(a, id -> {
+            if (annotations.get(id).overlaps(a)) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Returns whether any annotation overlaps the given annotation, taking
+     * blocks into account.
+     */
+    public boolean overlaps(Annotated a) {
+        return index.anyOverlapperMatches(a.getReferenceName(), a.getStart(),
+                a.getEnd(), id -> annotations.get(id).overlaps(a));
+    }
+
+    /**
+     * Returns whether the body of any annotation overlaps the body of the
+     * given annotation.
+     */
+    public boolean bodyOverlaps(Annotated a) {
+        return index.overlaps(a.getReferenceName(), a.getStart(), a.getEnd());
+    }
+
+    /**
+     * A class for accumulating annotations before building an immutable
+     * <code>AnnotationIndex</code>.
+     *
+     * @param <T> the type of annotation
+     */
+    public static final class Builder<T extends Annotated> {
+
+        private final List<T> annotations;
+        private final Set<T> seen;
+        private final IntervalIndex.Builder index;
+
+        private Builder() {
+            annotations = new ArrayList<>();
+            seen = new HashSet<>();
+            index = IntervalIndex.builder();
+        }
+
+        /**
+         * Adds an annotation to this builder unless an equal annotation has
+         * already been added.
+         *
+         * @return whether the annotation was added
+         */
+        public boolean add(T a) {
+            if (!seen.add(a)) {
+                return false;
+            }
+            annotations.add(a);
+            index.add(a.getReferenceName(), a.getStart(), a.getEnd());
+            return true;
+        }
+
+        public AnnotationIndex<T> build() {
+            seen.clear();
+            return new AnnotationIndex<>(annotations, index.build());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+
+/**
+ * A window that moves along a sorted stream of annotations, holding only the
+ * annotations that may overlap the current query.
+ * <p>
+ * This class answers the same body-overlap queries as {@link AnnotationIndex},
+ * but without reading the whole stream into memory. Both the annotations and
+ * the queries must be sorted by reference and then by start position, and
+ * the queries must be made in that order. Each query drops the annotations
+ * that end at or before its start and reads the annotations that start before
+ * its end, so the window never holds more than the annotations overlapping a
+ * single query.
+ * <p>
+ * The order of references is given by a function from reference name to
+ * rank, such as the index of the reference in a BAM header. Annotations on
+ * references without a rank, for which the function returns a negative
+ * number, are skipped. An annotation that is out of order causes an
+ * <code>IllegalArgumentException</code> when it is read.
+ * <p>
+ * Each annotation is identified by its position in the stream, counting from
+ * zero and including skipped annotations. Like <code>AnnotationIndex</code>,
+ * this class reports an annotation only once if it is repeated in the stream.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of annotation
+ */
+public final class AnnotationSweep<T extends Annotated> {
+
+    private final Iterator<? extends T> annotations;
+    private final ToIntFunction<String> ranks;
+    private final String source;
+
+    private final List<Entry<T>> window;
+    private Entry<T> next;
+    private int numRead;
+    private int maxWindowSize;
+
+    private int queryRank;
+    private int queryStart;
+
+    /**
+     * @param annotations the annotations, sorted by reference and start
+     * @param ranks returns the rank of a reference name, or a negative number
+     * if annotations on that reference should be skipped
+     * @param source a description of where the annotations come from, such as
+     * a file name, for error messages
+     */
+    public AnnotationSweep(Iterator<? extends T> annotations,
+            ToIntFunction<String> ranks, String source) {
+        this.annotations = annotations;
+        this.ranks = ranks;
+        this.source = source;
+        this.window = new ArrayList<>();
+        this.numRead = 0;
+        this.maxWindowSize = 0;
+        this.queryRank = -1;
+        this.queryStart = Integer.MIN_VALUE;
+        this.next = readNext(null);
+    }
+
+    /**
+     * Passes every annotation whose body overlaps the body of the given
+     * annotation to an action, together with its ID.
+     *
+     * @throws IllegalArgumentException if the query comes before the previous
+     * query, or if the stream is not sorted
+     */
+    public void forEachBodyOverlapper(Annotated a, ObjIntConsumer<? super T> action) {
+        if (!advance(a)) {
+            return;
+        }
+        for (Entry<T> e : window) {
+            if (e.start < a.getEnd() && a.getStart() < e.end) {
+                action.accept(e.annotation, e.id);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the body of any annotation overlaps the body of the
+     * given annotation.
+     *
+     * @throws IllegalArgumentException if the query comes before the previous
+     * query, or if the stream is not sorted
+     */
+    public boolean bodyOverlaps(Annotated a) {
+        if (!advance(a)) {
+            return false;
+        }
+        for (Entry<T> e : window) {
+            if (e.start < a.getEnd() && a.getStart() < e.end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any annotation overlaps the given annotation, taking
+     * blocks into account.
+     *
+     * @throws IllegalArgumentException if the query comes before the previous
+     * query, or if the stream is not sorted
+     */
+    public boolean overlaps(Annotated a) {
+        if (!advance(a)) {
+            return false;
+        }
+        for (Entry<T> e : window) {
+            if (e.start < a.getEnd() && a.getStart() < e.end
+                    && e.annotation.overlaps(a)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of annotations read from the stream so far,
+     * including skipped annotations.
+     */
+    public int getNumRead() {
+        return numRead;
+    }
+
+    /**
+     * Returns the largest number of annotations that the window has held at
+     * once.
+     */
+    public int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    /**
+     * Moves the window to the given query.
+     *
+     * @return false if the query is on a reference without a rank, in which
+     * case the window is not moved
+     */
+    private boolean advance(Annotated a) {
+        int rank = ranks.applyAsInt(a.getReferenceName());
+        if (rank < 0) {
+            return false;
+        }
+        int start = a.getStart();
+        int end = a.getEnd();
+        if (rank < queryRank || rank == queryRank && start < queryStart) {
+            throw new IllegalArgumentException("Queries against " + source
+                    + " must be sorted by reference and start position, but "
+                    + a.getReferenceName() + ":" + start + " came after a "
+                    + "later position.");
+        }
+        queryRank = rank;
+        queryStart = start;
+
+        window.removeIf(e -> e.rank != rank || e.end <= start);
+
+        while (next != null && next.rank <= rank) {
+            if (next.rank == rank) {
+                if (next.start >= end) {
+                    break;
+                }
+                if (next.end > start && !isDuplicate(next)) {
+                    window.add(next);
+                }
+            }
+            next = readNext(next);
+        }
+        maxWindowSize = Math.max(maxWindowSize, window.size());
+        return true;
+    }
+
+    /**
+     * Returns whether the window already holds an annotation equal to the
+     * given one. Equal annotations have equal starts, and the window is in
+     * order of start, so only its tail needs to be checked.
+     */
+    private boolean isDuplicate(Entry<T> entry) {
+        for (int i = window.size() - 1; i >= 0; i--) {
+            Entry<T> e = window.get(i);
+            if (e.start != entry.start) {
+                return false;
+            }
+            if (e.annotation.equals(entry.annotation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next annotation on a ranked reference, checking that it does
+     * not come before the previous one.
+     *
+     * @return the next annotation, or null if the stream is exhausted
+     */
+    private Entry<T> readNext(Entry<T> previous) {
+        while (annotations.hasNext()) {
+            T annotation = annotations.next();
+            int id = numRead++;
+            int rank = ranks.applyAsInt(annotation.getReferenceName());
+            if (rank < 0) {
+                continue;
+            }
+            Entry<T> rtrn = new Entry<>(annotation, id, rank);
+            if (previous != null && (rank < previous.rank
+                    || rank == previous.rank && rtrn.start < previous.start)) {
+                throw new IllegalArgumentException(source + " is not sorted "
+                        + "by reference and start position in the expected "
+                        + "reference order: " + annotation.getReferenceName()
+                        + ":" + rtrn.start + " follows "
+                        + previous.annotation.getReferenceName() + ":"
+                        + previous.start + ".");
+            }
+            return rtrn;
+        }
+        return null;
+    }
+
+    private static final class Entry<T extends Annotated> {
+
+        private final T annotation;
+        private final int id;
+        private final int rank;
+        private final int start;
+        private final int end;
+
+        private Entry(T annotation, int id, int rank) {
+            this.annotation = annotation;
+            this.id = id;
+            this.rank = rank;
+            this.start = annotation.getStart();
+            this.end = annotation.getEnd();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+
+/**
+ * An immutable set of named annotations reduced to what an overlap analysis
+ * reads: the body of each annotation, its name, and a small integer tag
+ * computed when the track was built. A track may also keep the block
+ * boundaries of each annotation, so that intervals can be placed within its
+ * blocks.
+ * <p>
+ * Names are interned in a {@link NameDictionary}, and each annotation refers
+ * to its name by ID.
+ * <p>
+ * Unlike {@link AnnotationIndex}, a track holds no annotation objects, so it
+ * can be written to and read back from a binary file with
+ * {@link #writeTo(ByteBuffer)} and {@link #readFrom(ByteBuffer)}. Its arrays
+ * are held as buffers, so a track read from a memory-mapped file is used in
+ * place rather than copied onto the heap.
+ */
+public final class AnnotationTrack {
+
+    /**
+     * The number of annotations whose tags are computed by one task.
+     */
+    private static final int TAG_CHUNK_SIZE = 1024;
+
+    private final IntervalIndex index;
+    private final NameDictionary names;
+    private final IntBuffer nameIds;
+    private final ByteBuffer tags;
+
+    /**
+     * The block boundaries of annotation <i>i</i> are those of
+     * <code>blockBoundaries</code> from <code>blockOffsets.get(i)</code> up
+     * to <code>blockOffsets.get(i + 1)</code>. Both are null if the track
+     * does not keep blocks.
+     */
+    private final IntBuffer blockOffsets;
+    private final IntBuffer blockBoundaries;
+
+    private AnnotationTrack(IntervalIndex index, NameDictionary names,
+            IntBuffer nameIds, ByteBuffer tags, IntBuffer blockOffsets,
+            IntBuffer blockBoundaries) {
+        if (index.size() != nameIds.limit() || nameIds.limit() != tags.limit()) {
+            throw new IllegalArgumentException("Index, names and tags differ "
+                    + "in size: " + index.size() + ", " + nameIds.limit() + ", "
+                    + tags.limit());
+        }
+        if (blockOffsets != null && blockOffsets.limit() != nameIds.limit() + 1) {
+            throw new IllegalArgumentException("Expected " + (nameIds.limit() + 1)
+                    + " block offsets, found " + blockOffsets.limit());
+        }
+        this.index = index;
+        this.names = names;
+        this.nameIds = nameIds;
+        this.tags = tags;
+        this.blockOffsets = blockOffsets;
+        this.blockBoundaries = blockBoundaries;
+    }
+
+    /**
+     * Builds a track from indexed annotations. Tags are computed in chunks
+     * of annotations, each as a separate task, so with an executor the tag
+     * function must be safe to call concurrently.
+     *
+     * @param annotations the annotations
+     * @param name a function returning the name of an annotation
+     * @param tag a function returning the tag of an annotation, which must
+     * fit in a byte
+     * @param executor runs the tasks, or null to run them on the calling
+     * thread
+     */
+    public static <T extends Annotated> AnnotationTrack from(
+            AnnotationIndex<T> annotations, Function<? super T, String> name,
+            ToIntFunction<? super T> tag, ExecutorService executor) {
+        return from(annotations, name, tag, false, executor);
+    }
+
+    /**
+     * Builds a track from indexed annotations. Tags are computed in chunks
+     * of annotations, each as a separate task, so with an executor the tag
+     * function must be safe to call concurrently.
+     *
+     * @param annotations the annotations
+     * @param name a function returning the name of an annotation
+     * @param tag a function returning the tag of an annotation, which must
+     * fit in a byte
+     * @param keepBlocks whether to keep the block boundaries of each
+     * annotation for {@link #placeWithinBlocks(int, int, int)}
+     * @param executor runs the tasks, or null to run them on the calling
+     * thread
+     */
+    public static <T extends Annotated> AnnotationTrack from(
+            AnnotationIndex<T> annotations, Function<? super T, String> name,
+            ToIntFunction<? super T> tag, boolean keepBlocks,
+            ExecutorService executor) {
+        int size = annotations.size();
+        NameDictionary names = new NameDictionary();
+        int[] nameIds = new int[size];
+        for (int id = 0; id < size; id++) {
+            nameIds[id] = names.intern(name.apply(annotations.get(id)));
+        }
+        byte[] tags = new byte[size];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += TAG_CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(from + TAG_CHUNK_SIZE, size);
+            tasks.add(() -> {
+                for (int id = start; id < end; id++) {
+                    tags[id] = (byte) tag.applyAsInt(annotations.get(id));
+                }
+                return null;
+            });
+        }
+        Tasks.invokeAll(executor, tasks);
+        if (!keepBlocks) {
+            return new AnnotationTrack(annotations.getIntervalIndex(), names,
+                    IntBuffer.wrap(nameIds), ByteBuffer.wrap(tags), null, null);
+        }
+        int[] blockOffsets = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            blockOffsets[id + 1] = blockOffsets[id]
+                    + annotations.get(id).getBlockBoundaries().length;
+        }
+        int[] blockBoundaries = new int[blockOffsets[size]];
+        for (int id = 0; id < size; id++) {
+            int[] boundaries = annotations.get(id).getBlockBoundaries();
+            System.arraycopy(boundaries, 0, blockBoundaries, blockOffsets[id],
+                    boundaries.length);
+        }
+        return new AnnotationTrack(annotations.getIntervalIndex(), names,
+                IntBuffer.wrap(nameIds), ByteBuffer.wrap(tags),
+                IntBuffer.wrap(blockOffsets), IntBuffer.wrap(blockBoundaries));
+    }
+
+    public int size() {
+        return nameIds.limit();
+    }
+
+    /**
+     * Returns the dictionary of the names of the annotations in this track.
+     */
+    public NameDictionary getNames() {
+        return names;
+    }
+
+    /**
+     * Returns the ID, in {@link #getNames()}, of the name of the given
+     * annotation.
+     */
+    public int getNameId(int id) {
+        return nameIds.get(id);
+    }
+
+    public String getName(int id) {
+        return names.get(nameIds.get(id));
+    }
+
+    public int getTag(int id) {
+        return tags.get(id);
+    }
+
+    /**
+     * Returns whether this track keeps the block boundaries of its
+     * annotations.
+     */
+    public boolean hasBlocks() {
+        return blockOffsets != null;
+    }
+
+    /**
+     * Places an interval relative to the blocks of the given annotation.
+     *
+     * @param id the ID of an annotation whose body overlaps the interval
+     * @param start the start of the interval
+     * @param end the end of the interval, exclusive
+     * @throws IllegalStateException if this track does not keep blocks
+     */
+    public BlockPlacement placeWithinBlocks(int id, int start, int end) {
+        if (blockOffsets == null) {
+            throw new IllegalStateException("This track does not keep the "
+                    + "blocks of its annotations.");
+        }
+        return BlockPlacement.of(blockBoundaries, blockOffsets.get(id),
+                blockOffsets.get(id + 1), start, end);
+    }
+
+    /**
+     * Passes the ID of every annotation whose body overlaps the body of the
+     * given annotation to the given action.
+     */
+    public void forEachBodyOverlapper(Annotated a, IntConsumer action) {
+        index.forEachOverlapper(a.getReferenceName(), a.getStart(), a.getEnd(), action);
+    }
+
+    /**
+     * Returns the number of bytes that {@link #writeTo(ByteBuffer)} writes.
+     */
+    public long serializedSize() {
+        long rtrn = index.serializedSize();
+        rtrn += names.serializedSize();
+        rtrn += Integer.BYTES + (long) Integer.BYTES * nameIds.limit() + tags.limit();
+        rtrn += 1;
+        if (blockOffsets != null) {
+            rtrn += Integer.BYTES + (long) Integer.BYTES * blockOffsets.limit()
+                    + (long) Integer.BYTES * blockBoundaries.limit();
+        }
+        return rtrn;
+    }
+
+    /**
+     * Writes this track to the given buffer. Names are written once each,
+     * with every annotation referring to its name by ID. Block boundaries, if
+     * kept, follow the tags.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        index.writeTo(buffer);
+        names.writeTo(buffer);
+        buffer.putInt(nameIds.limit());
+        Buffers.putInts(buffer, nameIds);
+        buffer.put(tags.duplicate());
+        buffer.put((byte) (blockOffsets == null ? 0 : 1));
+        if (blockOffsets != null) {
+            buffer.putInt(blockBoundaries.limit());
+            Buffers.putInts(buffer, blockOffsets);
+            Buffers.putInts(buffer, blockBoundaries);
+        }
+    }
+
+    /**
+     * Reads a track previously written by {@link #writeTo(ByteBuffer)}. The
+     * track keeps views of the buffer rather than copies, so the buffer must
+     * not be modified while the track is in use.
+     */
+    public static AnnotationTrack readFrom(ByteBuffer buffer) {
+        IntervalIndex index = IntervalIndex.readFrom(buffer);
+        NameDictionary names = NameDictionary.readFrom(buffer);
+        int size = buffer.getInt();
+        IntBuffer nameIds = Buffers.viewInts(buffer, size);
+        ByteBuffer tags = Buffers.viewBytes(buffer, size);
+        IntBuffer blockOffsets = null;
+        IntBuffer blockBoundaries = null;
+        if (buffer.get() != 0) {
+            int numBoundaries = buffer.getInt();
+            blockOffsets = Buffers.viewInts(buffer, size + 1);
+            blockBoundaries = Buffers.viewInts(buffer, numBoundaries);
+        }
+        return new AnnotationTrack(index, names, nameIds, tags, blockOffsets,
+                blockBoundaries);
+    }
+}
@@ -0,0 +1,91 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.nio.IntBuffer;
+
+/**
+ * Where an interval falls relative to the blocks of an annotation, such as
+ * the exons of a gene.
+ * <p>
+ * Only the part of the interval within the body of the annotation is
+ * considered, so an interval that hangs over the end of an annotation is
+ * placed by the part that does not.
+ */
+public enum BlockPlacement {
+
+    /**
+     * The interval lies within a single block.
+     */
+    WITHIN_BLOCK,
+
+    /**
+     * The interval lies within a single gap between two blocks.
+     */
+    WITHIN_GAP,
+
+    /**
+     * The interval crosses at least one block boundary.
+     */
+    ACROSS_BOUNDARY;
+
+    /**
+     * Places an interval relative to the blocks whose boundaries are held in
+     * a range of an array, found by binary search.
+     *
+     * @param boundaries the block boundaries, as returned by
+     * {@link edu.caltech.lncrna.bio.annotation.Annotated#getBlockBoundaries()}
+     * @param from the first boundary of the annotation in the array
+     * @param to one past the last boundary of the annotation in the array
+     * @param start the start of the interval
+     * @param end the end of the interval, exclusive
+     * @throws IllegalArgumentException if the interval does not overlap the
+     * body of the annotation
+     */
+    public static BlockPlacement of(int[] boundaries, int from, int to,
+            int start, int end) {
+        return of(IntBuffer.wrap(boundaries), from, to, start, end);
+    }
+
+    /**
+     * Places an interval relative to the blocks whose boundaries are held in
+     * a range of a buffer, found by binary search.
+     *
+     * @see #of(int[], int, int, int, int)
+     */
+    public static BlockPlacement of(IntBuffer boundaries, int from, int to,
+            int start, int end) {
+        int first = Math.max(start, boundaries.get(from));
+        int last = Math.min(end, boundaries.get(to - 1)) - 1;
+        if (first > last) {
+            throw new IllegalArgumentException("[" + start + ", " + end
+                    + ") does not overlap the annotation body ["
+                    + boundaries.get(from) + ", " + boundaries.get(to - 1) + ")");
+        }
+
+        // Boundaries are ordered start, end, start, end, ..., so a position
+        // is in a block if an odd number of boundaries are at or before it.
+        int firstSegment = segment(boundaries, from, to, first);
+        int lastSegment = segment(boundaries, from, to, last);
+        if (firstSegment != lastSegment) {
+            return ACROSS_BOUNDARY;
+        }
+        return (firstSegment - from) % 2 == 1 ? WITHIN_BLOCK : WITHIN_GAP;
+    }
+
+    /**
+     * Returns the index of the first boundary after the given position.
+     * Adjacent blocks are merged, so boundaries are distinct.
+     */
+    private static int segment(IntBuffer boundaries, int from, int to, int position) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (boundaries.get(mid) <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,61 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Static methods for reading and writing the binary form of the indexes in
+ * this package. Arrays are written in bulk through typed views of the buffer,
+ * and read back as views of the buffer, so reading a memory-mapped index
+ * neither parses nor copies its arrays.
+ */
+final class Buffers {
+
+    private Buffers() {
+        // static utility class
+    }
+
+    static long stringSize(String s) {
+        return Integer.BYTES + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void putInts(ByteBuffer buffer, IntBuffer values) {
+        buffer.asIntBuffer().put(values.duplicate());
+        buffer.position(buffer.position() + values.limit() * Integer.BYTES);
+    }
+
+    /**
+     * Returns a view of the next <code>length</code> ints of a buffer, in the
+     * byte order of the buffer, and moves the buffer past them.
+     */
+    static IntBuffer viewInts(ByteBuffer buffer, int length) {
+        IntBuffer rtrn = buffer.asIntBuffer();
+        rtrn.limit(length);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return rtrn;
+    }
+
+    /**
+     * Returns a view of the next <code>length</code> bytes of a buffer, and
+     * moves the buffer past them.
+     */
+    static ByteBuffer viewBytes(ByteBuffer buffer, int length) {
+        ByteBuffer rtrn = buffer.slice();
+        rtrn.limit(length);
+        buffer.position(buffer.position() + length);
+        return rtrn;
+    }
+}
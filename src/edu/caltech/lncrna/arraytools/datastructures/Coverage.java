@@ -0,0 +1,240 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+import edu.caltech.lncrna.bio.annotation.Strand;
+
+/**
+ * The bases covered by a set of annotations, for testing whether an
+ * annotation touches any of them without finding which.
+ * <p>
+ * The blocks of the annotations are grouped by reference and strand, and
+ * each group is stored in one of two forms:
+ * <ul>
+ * <li>{@link Representation#MERGED_INTERVALS}: the union of the blocks as
+ * sorted, disjoint intervals, searched by a single binary search. Its size
+ * grows with the number of merged runs, two ints each.
+ * <li>{@link Representation#BITMAP}: one bit per base up to the last covered
+ * base, tested by scanning for a set bit. Its size grows with the length of
+ * the reference, about 400 MB per strand for a human genome, but the test
+ * does not depend on the number of annotations.
+ * </ul>
+ * <p>
+ * {@link #overlaps(Annotated)} gives the same answer as asking whether any of
+ * the annotations overlaps the given one with
+ * {@link Annotated#overlaps(Annotated)}: blocks must share a base, and
+ * strands must be compatible.
+ * <p>
+ * Once built, a <code>Coverage</code> is safe to query from multiple
+ * threads.
+ */
+public final class Coverage {
+
+    /**
+     * The form in which the covered bases of each reference and strand are
+     * stored.
+     */
+    public enum Representation {
+        MERGED_INTERVALS,
+        BITMAP;
+    }
+
+    private final Map<String, Map<Strand, Track>> tracks;
+
+    private Coverage(Map<String, Map<Strand, Track>> tracks) {
+        this.tracks = tracks;
+    }
+
+    /**
+     * Builds the coverage of the given annotations.
+     *
+     * @param annotations the annotations
+     * @param representation the form in which to store the covered bases
+     */
+    public static Coverage of(Iterable<? extends Annotated> annotations,
+            Representation representation) {
+        Map<String, Map<Strand, Blocks>> blocks = new HashMap<>();
+        String ref = null;
+        Strand strand = null;
+        Blocks current = null;
+        for (Annotated a : annotations) {
+            if (!a.getReferenceName().equals(ref) || a.getStrand() != strand) {
+                ref = a.getReferenceName();
+                strand = a.getStrand();
+                current = blocks.computeIfAbsent(ref, x -> new EnumMap<>(Strand.class))
+                        .computeIfAbsent(strand, x -> new Blocks());
+            }
+            int[] boundaries = a.getBlockBoundaries();
+            for (int i = 0; i < boundaries.length; i += 2) {
+                current.add(boundaries[i], boundaries[i + 1]);
+            }
+        }
+
+        Map<String, Map<Strand, Track>> tracks = new HashMap<>();
+        blocks.forEach((r, byStrand) -> {
+            Map<Strand, Track> refTracks = new EnumMap<>(Strand.class);
+            byStrand.forEach((s, b) -> refTracks.put(s,
+                    representation == Representation.BITMAP
+                            ? new Bitmap(b)
+                            : new MergedIntervals(b)));
+            tracks.put(r, refTracks);
+        });
+        return new Coverage(tracks);
+    }
+
+    /**
+     * Returns whether any covered base on a compatible strand lies within a
+     * block of the given annotation.
+     */
+    public boolean overlaps(Annotated a) {
+        Map<Strand, Track> refTracks = tracks.get(a.getReferenceName());
+        if (refTracks == null) {
+            return false;
+        }
+        int[] boundaries = a.getBlockBoundaries();
+        for (Map.Entry<Strand, Track> entry : refTracks.entrySet()) {
+            if (entry.getKey().intersect(a.getStrand()) == Strand.INVALID) {
+                continue;
+            }
+            Track track = entry.getValue();
+            for (int i = 0; i < boundaries.length; i += 2) {
+                if (track.touches(boundaries[i], boundaries[i + 1])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the covered bases.
+     */
+    public long sizeInBytes() {
+        long rtrn = 0;
+        for (Map<Strand, Track> refTracks : tracks.values()) {
+            for (Track track : refTracks.values()) {
+                rtrn += track.sizeInBytes();
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * The growable blocks of one reference and strand, each packed into a
+     * long with its start in the high bits and its end in the low bits.
+     */
+    private static final class Blocks {
+
+        private long[] keys = new long[16];
+        private int size = 0;
+
+        private void add(int start, int end) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size + (size >> 1));
+            }
+            keys[size++] = ((long) start << 32) | (end & 0xFFFFFFFFL);
+        }
+
+        private static int start(long key) {
+            return (int) (key >> 32);
+        }
+
+        private static int end(long key) {
+            return (int) key;
+        }
+    }
+
+    /**
+     * The covered bases of one reference and strand.
+     */
+    private interface Track {
+
+        /**
+         * Returns whether any base in <code>[start, end)</code> is covered.
+         */
+        boolean touches(int start, int end);
+
+        long sizeInBytes();
+    }
+
+    /**
+     * Covered bases as sorted, disjoint, non-adjacent half-open intervals.
+     */
+    private static final class MergedIntervals implements Track {
+
+        private final int[] starts;
+        private final int[] ends;
+
+        private MergedIntervals(Blocks blocks) {
+            long[] keys = blocks.keys;
+            int numBlocks = blocks.size;
+            Arrays.parallelSort(keys, 0, numBlocks);
+
+            int[] mergedStarts = new int[numBlocks];
+            int[] mergedEnds = new int[numBlocks];
+            int size = 0;
+            for (int i = 0; i < numBlocks; i++) {
+                int start = Blocks.start(keys[i]);
+                int end = Blocks.end(keys[i]);
+                if (size > 0 && start <= mergedEnds[size - 1]) {
+                    mergedEnds[size - 1] = Math.max(mergedEnds[size - 1], end);
+                } else {
+                    mergedStarts[size] = start;
+                    mergedEnds[size] = end;
+                    size++;
+                }
+            }
+            starts = Arrays.copyOf(mergedStarts, size);
+            ends = Arrays.copyOf(mergedEnds, size);
+        }
+
+        @Override
+        public boolean touches(int start, int end) {
+            // The last interval that starts before the end of the query is
+            // the only one that can reach past its start.
+            int i = Arrays.binarySearch(starts, end);
+            i = i < 0 ? -i - 2 : i - 1;
+            return i >= 0 && ends[i] > start && start < end;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 2L * Integer.BYTES * starts.length;
+        }
+    }
+
+    /**
+     * Covered bases as one bit per base.
+     */
+    private static final class Bitmap implements Track {
+
+        private final BitSet bits;
+
+        private Bitmap(Blocks blocks) {
+            bits = new BitSet();
+            for (int i = 0; i < blocks.size; i++) {
+                long key = blocks.keys[i];
+                bits.set(Math.max(Blocks.start(key), 0), Math.max(Blocks.end(key), 0));
+            }
+        }
+
+        @Override
+        public boolean touches(int start, int end) {
+            if (end <= 0 || start >= end) {
+                return false;
+            }
+            int next = bits.nextSetBit(Math.max(start, 0));
+            return next >= 0 && next < end;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return bits.size() / Byte.SIZE;
+        }
+    }
+}
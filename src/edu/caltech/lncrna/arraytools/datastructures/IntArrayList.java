@@ -0,0 +1,57 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive integers.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class IntArrayList {
+
+    private int[] values;
+    private int size;
+
+    public IntArrayList() {
+        this(8);
+    }
+
+    public IntArrayList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+        size = 0;
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of "
+                    + "bounds for size " + size);
+        }
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns a new array holding the values in this list.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,192 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of non-negative integer keys without boxing.
+ * <p>
+ * Keys are held in an open-addressing hash table with linear probing. Keys
+ * are reported in the order in which they were first counted.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class IntCounter {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    public IntCounter() {
+        slots = new int[16];
+        Arrays.fill(slots, EMPTY);
+        keys = new int[8];
+        counts = new int[8];
+        size = 0;
+    }
+
+    /**
+     * Adds one to the count of the given key.
+     *
+     * @throws IllegalArgumentException if the key is negative
+     */
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    /**
+     * Adds an amount to the count of the given key.
+     *
+     * @throws IllegalArgumentException if the key is negative
+     */
+    public void add(int key, int amount) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key must be non-negative: " + key);
+        }
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != EMPTY) {
+            int i = slots[slot];
+            if (keys[i] == key) {
+                counts[i] += amount;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        keys[size] = key;
+        counts[size] = amount;
+        slots[slot] = size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Adds the counts of another counter to this one. Keys that are new to
+     * this counter follow its existing keys, in their order in the other.
+     */
+    public void addAll(IntCounter other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.keys[i], other.counts[i]);
+        }
+    }
+
+    /**
+     * Returns the current count of the given key, which is zero if the key
+     * has not been counted.
+     */
+    public int get(int key) {
+        if (key < 0) {
+            return 0;
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(key) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slots[slot]] == key) {
+                return counts[slots[slot]];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of distinct keys counted.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the <i>i</i>th distinct key, in order of first occurrence.
+     */
+    public int getKey(int i) {
+        checkIndex(i);
+        return keys[i];
+    }
+
+    /**
+     * Returns the count of the <i>i</i>th distinct key, in order of first
+     * occurrence.
+     */
+    public int getCount(int i) {
+        checkIndex(i);
+        return counts[i];
+    }
+
+    /**
+     * Removes all keys, keeping the allocated capacity.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Two counters are equal if they hold the same counts, in any order.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof IntCounter)) {
+            return false;
+        }
+        IntCounter o = (IntCounter) other;
+        if (size != o.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (o.get(keys[i]) != counts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int rtrn = 0;
+        for (int i = 0; i < size; i++) {
+            rtrn += mix(keys[i]) ^ counts[i];
+        }
+        return rtrn;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of "
+                    + "bounds for " + size + " keys");
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(keys[i]) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i;
+        }
+    }
+
+    /**
+     * Spreads consecutive keys across the table.
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,431 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable index of half-open genomic intervals for overlap queries.
+ * <p>
+ * Each interval is identified by the integer ID it was assigned when added to
+ * the {@link Builder}. Intervals are grouped by reference name. Within each
+ * reference, the start, end and ID of every interval are held in parallel
+ * primitive arrays sorted by start position, together with an augmented array
+ * of maximum end positions. Read as an implicit binary tree (see Li's
+ * <i>cgranges</i>), these arrays support the same overlap queries as a
+ * red-black interval tree without allocating a node per interval.
+ * <p>
+ * The arrays are held as <code>IntBuffer</code>s, so that an index read with
+ * {@link #readFrom(ByteBuffer)} from a memory-mapped file can be queried in
+ * place, without copying its arrays onto the heap.
+ * <p>
+ * Once built, an <code>IntervalIndex</code> is safe to query from multiple
+ * threads.
+ */
+public final class IntervalIndex {
+
+    /**
+     * References with fewer intervals than this are scanned linearly.
+     */
+    private static final int MIN_TREE_SIZE = 64;
+
+    /**
+     * Subtrees at or below this level are scanned linearly.
+     */
+    private static final int MAX_SCAN_LEVEL = 3;
+
+    private final Map<String, Chromosome> chroms;
+    private final int size;
+
+    private IntervalIndex(Map<String, Chromosome> chroms) {
+        this.chroms = chroms;
+        this.size = chroms.values().stream().mapToInt(x -> x.size).sum();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the number of intervals in this index.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the names of the references that have at least one interval in
+     * this index.
+     */
+    public Set<String> getReferenceNames() {
+        return Collections.unmodifiableSet(chroms.keySet());
+    }
+
+    /**
+     * Returns whether any interval in this index overlaps the given interval.
+     */
+    public boolean overlaps(String ref, int start, int end) {
+        Chromosome c = chroms.get(ref);
+        return c != null && !c.search(start, end, id -> false);
+    }
+
+    /**
+     * Returns the number of intervals in this index that overlap the given
+     * interval.
+     */
+    public int numOverlappers(String ref, int start, int end) {
+        Chromosome c = chroms.get(ref);
+        if (c == null) {
+            return 0;
+        }
+        int[] count = new int[1];
+        c.search(start, end, id -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    /**
+     * Passes the ID of every interval in this index that overlaps the given
+     * interval to the given action, in order of increasing start position.
+     */
+    public void forEachOverlapper(String ref, int start, int end, IntConsumer action) {
+        Chromosome c = chroms.get(ref);
+        if (c != null) {
+            c.search(start, end, id -> {
+                action.accept(id);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Returns whether the ID of any interval in this index that overlaps the
+     * given interval satisfies the given predicate. Stops searching at the
+     * first match.
+     */
+    public boolean anyOverlapperMatches(String ref, int start, int end, IntPredicate predicate) {
+        Chromosome c = chroms.get(ref);
+        return c != null && !c.search(start, end, id -> !predicate.test(id));
+    }
+
+    /**
+     * Returns the number of bytes that {@link #writeTo(ByteBuffer)} writes.
+     */
+    public long serializedSize() {
+        long rtrn = Integer.BYTES;
+        for (Map.Entry<String, Chromosome> entry : chroms.entrySet()) {
+            rtrn += Buffers.stringSize(entry.getKey());
+            rtrn += 2 * Integer.BYTES + 4L * Integer.BYTES * entry.getValue().size;
+        }
+        return rtrn;
+    }
+
+    /**
+     * Writes this index to the given buffer in a form that
+     * {@link #readFrom(ByteBuffer)} can restore without re-sorting.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(chroms.size());
+        for (Map.Entry<String, Chromosome> entry : chroms.entrySet()) {
+            Chromosome c = entry.getValue();
+            Buffers.putString(buffer, entry.getKey());
+            buffer.putInt(c.size);
+            buffer.putInt(c.rootLevel);
+            Buffers.putInts(buffer, c.starts);
+            Buffers.putInts(buffer, c.ends);
+            Buffers.putInts(buffer, c.maxEnds);
+            Buffers.putInts(buffer, c.ids);
+        }
+    }
+
+    /**
+     * Reads an index previously written by {@link #writeTo(ByteBuffer)}. The
+     * arrays of the index are views of the buffer rather than copies, so the
+     * buffer must not be modified while the index is in use.
+     */
+    public static IntervalIndex readFrom(ByteBuffer buffer) {
+        int numChroms = buffer.getInt();
+        Map<String, Chromosome> chroms = new HashMap<>();
+        for (int i = 0; i < numChroms; i++) {
+            String ref = Buffers.getString(buffer);
+            int size = buffer.getInt();
+            int rootLevel = buffer.getInt();
+            IntBuffer starts = Buffers.viewInts(buffer, size);
+            IntBuffer ends = Buffers.viewInts(buffer, size);
+            IntBuffer maxEnds = Buffers.viewInts(buffer, size);
+            IntBuffer ids = Buffers.viewInts(buffer, size);
+            chroms.put(ref, new Chromosome(starts, ends, maxEnds, ids, rootLevel));
+        }
+        return new IntervalIndex(chroms);
+    }
+
+    /**
+     * The intervals on a single reference, stored as an implicit interval
+     * tree.
+     */
+    private static final class Chromosome {
+
+        private final IntBuffer starts;
+        private final IntBuffer ends;
+        private final IntBuffer maxEnds;
+        private final IntBuffer ids;
+        private final int size;
+        private final int rootLevel;
+
+        private Chromosome(int[] starts, int[] ends, int[] ids) {
+            this.size = starts.length;
+            int[] maxEnds = new int[size];
+            this.rootLevel = index(ends, maxEnds);
+            this.starts = IntBuffer.wrap(starts);
+            this.ends = IntBuffer.wrap(ends);
+            this.maxEnds = IntBuffer.wrap(maxEnds);
+            this.ids = IntBuffer.wrap(ids);
+        }
+
+        private Chromosome(IntBuffer starts, IntBuffer ends, IntBuffer maxEnds,
+                IntBuffer ids, int rootLevel) {
+            this.starts = starts;
+            this.ends = ends;
+            this.maxEnds = maxEnds;
+            this.ids = ids;
+            this.size = starts.limit();
+            this.rootLevel = rootLevel;
+        }
+
+        /**
+         * Fills the array of maximum end positions and returns the level of
+         * the root node.
+         * <p>
+         * In the implicit tree, the leaves are the even positions, and the
+         * nodes at level <i>k</i> are the positions whose lowest <i>k</i> bits
+         * are set. The maximum end of a node covers its own interval and both
+         * of its subtrees.
+         */
+        private int index(int[] ends, int[] maxEnds) {
+            if (size == 0) {
+                return -1;
+            }
+            int lastIndex = 0;
+            int last = 0;
+            for (int i = 0; i < size; i += 2) {
+                lastIndex = i;
+                last = maxEnds[i] = ends[i];
+            }
+            int k = 1;
+            for (; 1L << k <= size; k++) {
+                int x = 1 << (k - 1);
+                int first = (x << 1) - 1;
+                int step = x << 2;
+                for (int i = first; i < size; i += step) {
+                    int left = maxEnds[i - x];
+                    int right = i + x < size ? maxEnds[i + x] : last;
+                    maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+                }
+                lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+                if (lastIndex < size && maxEnds[lastIndex] > last) {
+                    last = maxEnds[lastIndex];
+                }
+            }
+            return k - 1;
+        }
+
+        /**
+         * Passes the ID of each interval that overlaps
+         * <code>[start, end)</code> to the given action, in order of
+         * increasing start position, until the action returns
+         * <code>false</code>.
+         *
+         * @return <code>false</code> if the action stopped the search early
+         */
+        private boolean search(int start, int end, IntPredicate action) {
+            if (size < MIN_TREE_SIZE) {
+                return scan(0, size, start, end, action);
+            }
+
+            // Each stack frame holds a node, its level, and whether its left
+            // subtree has been visited yet.
+            int[] nodes = new int[64];
+            int[] levels = new int[64];
+            boolean[] visited = new boolean[64];
+            int t = 0;
+            nodes[t] = (1 << rootLevel) - 1;
+            levels[t] = rootLevel;
+            visited[t++] = false;
+
+            while (t > 0) {
+                t--;
+                int x = nodes[t];
+                int k = levels[t];
+                if (k <= MAX_SCAN_LEVEL) {
+                    int i0 = x >> k << k;
+                    int i1 = Math.min(i0 + (1 << (k + 1)) - 1, size);
+                    if (!scan(i0, i1, start, end, action)) {
+                        return false;
+                    }
+                } else if (!visited[t]) {
+                    int y = x - (1 << (k - 1));
+                    visited[t++] = true;
+                    if (y >= size || maxEnds.get(y) > start) {
+                        nodes[t] = y;
+                        levels[t] = k - 1;
+                        visited[t++] = false;
+                    }
+                } else if (x < size && starts.get(x) < end) {
+                    if (start < ends.get(x) && !action.test(ids.get(x))) {
+                        return false;
+                    }
+                    nodes[t] = x + (1 << (k - 1));
+                    levels[t] = k - 1;
+                    visited[t++] = false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Linearly scans the sorted positions <code>[from, to)</code> for
+         * intervals that overlap <code>[start, end)</code>.
+         */
+        private boolean scan(int from, int to, int start, int end, IntPredicate action) {
+            for (int i = from; i < to && starts.get(i) < end; i++) {
+                if (start < ends.get(i) && !action.test(ids.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A class for accumulating intervals before building an immutable
+     * <code>IntervalIndex</code>.
+     */
+    public static final class Builder {
+
+        private final Map<String, Block> blocks;
+        private int nextId;
+
+        private Builder() {
+            blocks = new HashMap<>();
+            nextId = 0;
+        }
+
+        /**
+         * Adds an interval to this builder.
+         *
+         * @return the ID assigned to the interval
+         * @throws IllegalArgumentException if the interval ends before it
+         * starts
+         */
+        public int add(String ref, int start, int end) {
+            if (end < start) {
+                throw new IllegalArgumentException("Interval ends before it "
+                        + "starts: " + ref + ":" + start + "-" + end);
+            }
+            int id = nextId++;
+            blocks.computeIfAbsent(ref, x -> new Block()).add(start, end, id);
+            return id;
+        }
+
+        public IntervalIndex build() {
+            return build(null);
+        }
+
+        /**
+         * Builds the index, sorting and indexing each reference as a separate
+         * task.
+         *
+         * @param executor runs the tasks, or null to run them on the calling
+         * thread
+         */
+        public IntervalIndex build(ExecutorService executor) {
+            List<String> refs = new ArrayList<>(blocks.keySet());
+            List<Callable<Chromosome>> tasks = new ArrayList<>(refs.size());
+            for (String ref : refs) {
+                Block block = blocks.get(ref);
+                tasks.add(block::toChromosome);
+            }
+            List<Chromosome> built = Tasks.invokeAll(executor, tasks);
+            Map<String, Chromosome> chroms = new HashMap<>();
+            for (int i = 0; i < refs.size(); i++) {
+                chroms.put(refs.get(i), built.get(i));
+            }
+            return new IntervalIndex(chroms);
+        }
+    }
+
+    /**
+     * The growable intervals of one reference, in the order they were added.
+     */
+    private static final class Block {
+
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] ids = new int[16];
+        private int size = 0;
+        private boolean sorted = true;
+
+        private void add(int start, int end, int id) {
+            if (size > 0 && start < starts[size - 1]) {
+                sorted = false;
+            }
+            if (size == starts.length) {
+                int capacity = size + (size >> 1);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            ids[size] = id;
+            size++;
+        }
+
+        /**
+         * Sorts the intervals by start position and returns them as an
+         * implicit interval tree.
+         * <p>
+         * Annotation files are usually sorted already. Intervals that were
+         * added in order of start position are used as they are, so the tree
+         * is built in linear time. Otherwise they are sorted, in parallel for
+         * large references, with ties kept in the order they were added.
+         */
+        private Chromosome toChromosome() {
+            if (sorted) {
+                return new Chromosome(Arrays.copyOf(starts, size),
+                        Arrays.copyOf(ends, size), Arrays.copyOf(ids, size));
+            }
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = ((long) starts[i] << 32) | i;
+            }
+            Arrays.parallelSort(keys);
+            int[] sortedStarts = new int[size];
+            int[] sortedEnds = new int[size];
+            int[] sortedIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                int j = (int) keys[i];
+                sortedStarts[i] = starts[j];
+                sortedEnds[i] = ends[j];
+                sortedIds[i] = ids[j];
+            }
+            return new Chromosome(sortedStarts, sortedEnds, sortedIds);
+        }
+    }
+}
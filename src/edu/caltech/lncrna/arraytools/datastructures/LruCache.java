@@ -0,0 +1,133 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread-safe cache that evicts its least recently used entries.
+ * <p>
+ * The entries are split by key hash into segments, each a
+ * <code>LinkedHashMap</code> in access order with its own lock, so threads
+ * only contend when they use the same segment. Each segment holds an equal
+ * share of the capacity and evicts on its own, so eviction is least recently
+ * used within a segment rather than across the whole cache.
+ * <p>
+ * Values are computed outside the segment lock. Two threads that miss on the
+ * same key at once may both compute its value, and the value stored last is
+ * kept, so values should be interchangeable.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+public final class LruCache<K, V> {
+
+    private final List<Segment<K, V>> segments;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param capacity the maximum number of entries
+     * @param numSegments the number of independently locked segments
+     */
+    public LruCache(int capacity, int numSegments) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: "
+                    + capacity);
+        }
+        if (numSegments < 1) {
+            throw new IllegalArgumentException("Number of segments must be "
+                    + "positive: " + numSegments);
+        }
+        numSegments = Math.min(numSegments, capacity);
+        int segmentCapacity = (capacity + numSegments - 1) / numSegments;
+        segments = new ArrayList<>(numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segments.add(new Segment<>(segmentCapacity));
+        }
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    /**
+     * Returns the value cached for the given key, computing and caching it
+     * if it is absent.
+     *
+     * @param key the key
+     * @param function computes the value of a key that is not cached; must
+     * not return null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> function) {
+        Segment<K, V> segment = segmentFor(key);
+        V rtrn;
+        synchronized (segment) {
+            rtrn = segment.get(key);
+        }
+        if (rtrn != null) {
+            hits.increment();
+            return rtrn;
+        }
+        misses.increment();
+        rtrn = function.apply(key);
+        synchronized (segment) {
+            segment.put(key, rtrn);
+        }
+        return rtrn;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that found their key, or zero if there
+     * have been no lookups.
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Returns the number of entries currently cached.
+     */
+    public int size() {
+        int rtrn = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                rtrn += segment.size();
+            }
+        }
+        return rtrn;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments.get(((h ^ (h >>> 16)) & Integer.MAX_VALUE) % segments.size());
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+}
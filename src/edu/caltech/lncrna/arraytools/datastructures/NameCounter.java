@@ -0,0 +1,255 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of names exactly, storing each distinct name once as
+ * bytes rather than as a <code>String</code>.
+ * <p>
+ * Names are held in an open-addressing hash table with linear probing that
+ * stores the ID of each name, as in {@link NameTable}. The hash, count and
+ * location of each name are stored by ID, and its characters are copied into
+ * large byte pages: one byte per character for names of Latin-1 characters,
+ * such as the read names of a BAM file, and two otherwise. A name costs 26
+ * to 50 bytes plus its characters. Names with the same hash are told apart
+ * by their characters, so every count is exact.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class NameCounter {
+
+    private static final int EMPTY = -1;
+
+    /**
+     * The size of a full page of name characters.
+     */
+    private static final int PAGE_BITS = 22;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /**
+     * The longest name that can be counted. The length of a name is stored
+     * in fifteen bits of its header, and the sixteenth marks a name stored
+     * with two bytes per character.
+     */
+    private static final int MAX_NAME_LENGTH = 0x7FFF;
+    private static final int WIDE = 0x8000;
+
+    /**
+     * The ID of the name in each slot, or {@link #EMPTY}.
+     */
+    private int[] slots;
+
+    private int[] hashes;
+    private int[] counts;
+
+    /**
+     * Where the header of each name starts, as a page number in the high
+     * bits and an offset within the page in the low {@link #PAGE_BITS}.
+     */
+    private long[] locations;
+    private int size;
+
+    /**
+     * Each name is stored as a two-byte header, holding its length and
+     * whether it is wide, followed by its characters. The last page grows
+     * until it is full.
+     */
+    private byte[][] pages;
+    private int numPages;
+    private int pageEnd;
+
+    public NameCounter() {
+        slots = new int[16];
+        Arrays.fill(slots, EMPTY);
+        hashes = new int[8];
+        counts = new int[8];
+        locations = new long[8];
+        size = 0;
+        pages = new byte[1][];
+        pages[0] = new byte[256];
+        numPages = 1;
+        pageEnd = 0;
+    }
+
+    /**
+     * Adds one to the count of the given name.
+     *
+     * @throws IllegalArgumentException if the name is longer than 32767
+     * characters
+     */
+    public void increment(CharSequence name) {
+        int hash = hash(name);
+        int slot = find(name, hash);
+        if (slots[slot] != EMPTY) {
+            counts[slots[slot]]++;
+            return;
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Name is longer than "
+                    + MAX_NAME_LENGTH + " characters: " + name.length());
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            locations = Arrays.copyOf(locations, size * 2);
+        }
+        hashes[size] = hash;
+        counts[size] = 1;
+        locations[size] = store(name);
+        slots[slot] = size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Returns the count of the given name, which is zero if the name has not
+     * been counted.
+     */
+    public int get(CharSequence name) {
+        int slot = find(name, hash(name));
+        return slots[slot] == EMPTY ? 0 : counts[slots[slot]];
+    }
+
+    /**
+     * Returns the number of distinct names counted.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct names counted at least
+     * <code>min</code> and at most <code>max</code> times.
+     */
+    public int countBetween(int min, int max) {
+        int rtrn = 0;
+        for (int id = 0; id < size; id++) {
+            if (counts[id] >= min && counts[id] <= max) {
+                rtrn++;
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * Returns the slot holding the given name, or the empty slot where it
+     * would go.
+     */
+    private int find(CharSequence name, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != EMPTY) {
+            int id = slots[slot];
+            if (hashes[id] == hash && matches(locations[id], name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns whether the name stored at the given location has the same
+     * characters as the given name.
+     */
+    private boolean matches(long location, CharSequence name) {
+        byte[] page = pages[(int) (location >>> PAGE_BITS)];
+        int i = (int) location & (PAGE_SIZE - 1);
+        int header = (page[i] & 0xFF) << 8 | page[i + 1] & 0xFF;
+        if ((header & ~WIDE) != name.length()) {
+            return false;
+        }
+        i += 2;
+        boolean wide = (header & WIDE) != 0;
+        for (int j = 0; j < name.length(); j++) {
+            int c = page[i++] & 0xFF;
+            if (wide) {
+                c = c << 8 | page[i++] & 0xFF;
+            }
+            if (c != name.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a name into the pages.
+     *
+     * @return the location of its header
+     */
+    private long store(CharSequence name) {
+        boolean wide = false;
+        for (int j = 0; j < name.length() && !wide; j++) {
+            wide = name.charAt(j) > 0xFF;
+        }
+        int length = 2 + (wide ? 2 : 1) * name.length();
+        byte[] page = reserve(length);
+        int i = pageEnd;
+        int header = name.length() | (wide ? WIDE : 0);
+        page[i++] = (byte) (header >>> 8);
+        page[i++] = (byte) header;
+        for (int j = 0; j < name.length(); j++) {
+            char c = name.charAt(j);
+            if (wide) {
+                page[i++] = (byte) (c >>> 8);
+            }
+            page[i++] = (byte) c;
+        }
+        long rtrn = (long) (numPages - 1) << PAGE_BITS | pageEnd;
+        pageEnd = i;
+        return rtrn;
+    }
+
+    /**
+     * Returns the last page, after growing it or starting a new one if it
+     * has no room for the given number of bytes.
+     */
+    private byte[] reserve(int length) {
+        byte[] page = pages[numPages - 1];
+        if (pageEnd + length <= page.length) {
+            return page;
+        }
+        if (pageEnd + length <= PAGE_SIZE) {
+            page = Arrays.copyOf(page, Math.min(PAGE_SIZE,
+                    Math.max(pageEnd + length, page.length * 2)));
+            pages[numPages - 1] = page;
+            return page;
+        }
+        if (numPages == pages.length) {
+            pages = Arrays.copyOf(pages, numPages * 2);
+        }
+        page = new byte[PAGE_SIZE];
+        pages[numPages++] = page;
+        pageEnd = 0;
+        return page;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    /**
+     * The hash of the characters of a name, computed as by
+     * <code>String.hashCode()</code> and then spread, as in
+     * {@link NameTable}, so that its low bits can index the table.
+     */
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,154 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A dictionary that assigns consecutive integer IDs to distinct names.
+ * <p>
+ * Annotation tracks have far fewer distinct names than records, so storing an
+ * ID per record and each name once saves most of the memory the names would
+ * otherwise take, and lets names be counted with primitive maps.
+ * <p>
+ * A dictionary is built by calling {@link #intern(String)}, which is not
+ * thread-safe. Once built, it may be read from multiple threads.
+ * <p>
+ * A dictionary read with {@link #readFrom(ByteBuffer)} keeps its names as
+ * encoded bytes in the buffer, and decodes each name the first time it is
+ * requested.
+ */
+public final class NameDictionary {
+
+    /**
+     * The ID of each name, or null until a dictionary read from a buffer is
+     * first added to.
+     */
+    private Map<String, Integer> ids;
+
+    /**
+     * The name with each ID, or null for a name that has not been decoded
+     * yet. A name decoded by two threads at once is stored twice, which is
+     * harmless since strings are immutable.
+     */
+    private String[] names;
+    private int size;
+
+    /**
+     * The encoded names of a dictionary read from a buffer. The UTF-8 bytes
+     * of the name with ID <i>i</i> run from <code>offsets.get(i)</code> up to
+     * <code>offsets.get(i + 1)</code>. Both are null for a dictionary built
+     * in memory.
+     */
+    private final IntBuffer offsets;
+    private final ByteBuffer encoded;
+
+    public NameDictionary() {
+        ids = new HashMap<>();
+        names = new String[16];
+        size = 0;
+        offsets = null;
+        encoded = null;
+    }
+
+    private NameDictionary(IntBuffer offsets, ByteBuffer encoded) {
+        this.ids = null;
+        this.size = offsets.limit() - 1;
+        this.names = new String[size];
+        this.offsets = offsets;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Returns the ID of the given name, assigning the next ID if the name has
+     * not been seen before.
+     */
+    public int intern(String name) {
+        if (ids == null) {
+            ids = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                ids.put(get(i), i);
+            }
+        }
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, Math.max(16, size * 2));
+        }
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Returns the name with the given ID.
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No name with ID " + id);
+        }
+        String rtrn = names[id];
+        if (rtrn == null) {
+            int from = offsets.get(id);
+            byte[] bytes = new byte[offsets.get(id + 1) - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = encoded.get(from + i);
+            }
+            rtrn = new String(bytes, StandardCharsets.UTF_8);
+            names[id] = rtrn;
+        }
+        return rtrn;
+    }
+
+    /**
+     * Returns the number of distinct names in this dictionary.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes that {@link #writeTo(ByteBuffer)} writes.
+     */
+    long serializedSize() {
+        long rtrn = Integer.BYTES + (long) Integer.BYTES * (size + 1);
+        for (int i = 0; i < size; i++) {
+            rtrn += get(i).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return rtrn;
+    }
+
+    /**
+     * Writes the names of this dictionary to the given buffer, as a table of
+     * offsets followed by the UTF-8 bytes of each name in order of ID.
+     */
+    void writeTo(ByteBuffer buffer) {
+        byte[][] bytes = new byte[size][];
+        int[] nameOffsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = get(i).getBytes(StandardCharsets.UTF_8);
+            nameOffsets[i + 1] = nameOffsets[i] + bytes[i].length;
+        }
+        buffer.putInt(size);
+        Buffers.putInts(buffer, IntBuffer.wrap(nameOffsets));
+        for (byte[] b : bytes) {
+            buffer.put(b);
+        }
+    }
+
+    /**
+     * Reads a dictionary previously written by {@link #writeTo(ByteBuffer)},
+     * keeping views of the buffer rather than decoding the names.
+     */
+    static NameDictionary readFrom(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        IntBuffer offsets = Buffers.viewInts(buffer, size + 1);
+        ByteBuffer encoded = Buffers.viewBytes(buffer, offsets.get(size));
+        return new NameDictionary(offsets, encoded);
+    }
+}
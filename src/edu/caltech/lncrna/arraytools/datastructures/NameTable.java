@@ -0,0 +1,164 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A table of values keyed by name, in which each distinct name is given a
+ * consecutive integer ID in order of first use.
+ * <p>
+ * Names are held in an open-addressing hash table with linear probing that
+ * stores the ID of each name, and the names, their hashes and their values
+ * are stored by ID. Looking up a name that is already present allocates
+ * nothing, and {@link #getOrCreate(String)} creates a missing value in the
+ * same lookup.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <T> the type of the values
+ */
+public final class NameTable<T> {
+
+    private static final int EMPTY = -1;
+
+    private final Supplier<? extends T> factory;
+
+    /**
+     * The ID of the name in each slot, or {@link #EMPTY}.
+     */
+    private int[] slots;
+
+    private int[] hashes;
+    private String[] names;
+    private Object[] values;
+    private int size;
+
+    /**
+     * @param factory creates the value of a name that is not yet in the
+     * table
+     */
+    public NameTable(Supplier<? extends T> factory) {
+        this.factory = factory;
+        slots = new int[16];
+        Arrays.fill(slots, EMPTY);
+        hashes = new int[8];
+        names = new String[8];
+        values = new Object[8];
+        size = 0;
+    }
+
+    /**
+     * Returns the value of the given name, creating it if the name is not
+     * yet in the table.
+     */
+    public T getOrCreate(String name) {
+        int hash = mix(name.hashCode());
+        int slot = find(name, hash);
+        if (slots[slot] != EMPTY) {
+            return get(slots[slot]);
+        }
+        T rtrn = factory.get();
+        add(slot, name, hash, rtrn);
+        return rtrn;
+    }
+
+    /**
+     * Adds a value for the given name if the name is not yet in the table.
+     *
+     * @return the value already in the table, or null if the given value was
+     * added
+     */
+    public T putIfAbsent(String name, T value) {
+        int hash = mix(name.hashCode());
+        int slot = find(name, hash);
+        if (slots[slot] != EMPTY) {
+            return get(slots[slot]);
+        }
+        add(slot, name, hash, value);
+        return null;
+    }
+
+    /**
+     * Returns the value of the name with the given ID.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        checkId(id);
+        return (T) values[id];
+    }
+
+    /**
+     * Returns the name with the given ID.
+     */
+    public String getName(int id) {
+        checkId(id);
+        return names[id];
+    }
+
+    /**
+     * Returns the number of names in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the slot holding the given name, or the empty slot where it
+     * would go.
+     */
+    private int find(String name, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != EMPTY) {
+            int id = slots[slot];
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void add(int slot, String name, int hash, T value) {
+        if (size == names.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        hashes[size] = hash;
+        names[size] = name;
+        values[size] = value;
+        slots[slot] = size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No name with ID " + id);
+        }
+    }
+
+    /**
+     * Spreads the bits of a string hash, whose low bits are similar for
+     * names that differ only in their last characters.
+     */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,68 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+
+/**
+ * An annotation with a name and nothing else.
+ * <p>
+ * A {@link edu.caltech.lncrna.bio.annotation.BedFileRecord} also carries a
+ * score, a coding region and a color, which cost sixteen bytes per record
+ * even when, as in this package, they are never read. This class keeps only
+ * the reference, strand, blocks and name.
+ * <p>
+ * Two named annotations are equal if they have the same blocks, strand, name
+ * and variant. The variant tells apart annotations loaded from records that
+ * differ only in the fields that are not kept, so that such records remain
+ * distinct, as their <code>BedFileRecord</code>s would. It costs no memory,
+ * as it fits in the padding of the object.
+ */
+public final class NamedAnnotation extends Annotation {
+
+    private final String name;
+    private final int variant;
+
+    /**
+     * @param blocks the blocks of this annotation
+     * @param name the name of this annotation
+     */
+    public NamedAnnotation(Annotated blocks, String name) {
+        this(blocks, name, 0);
+    }
+
+    /**
+     * @param blocks the blocks of this annotation
+     * @param name the name of this annotation
+     * @param variant the variant of this annotation, which distinguishes it
+     * from other annotations with the same blocks and name
+     */
+    public NamedAnnotation(Annotated blocks, String name, int variant) {
+        super(blocks);
+        if (name == null) {
+            throw new NullPointerException("Null name passed to constructor");
+        }
+        this.name = name;
+        this.variant = variant;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NamedAnnotation)) {
+            return false;
+        }
+        NamedAnnotation o = (NamedAnnotation) other;
+        return variant == o.variant && super.equals(other) && name.equals(o.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 37 * (37 * super.hashCode() + name.hashCode()) + variant;
+    }
+}
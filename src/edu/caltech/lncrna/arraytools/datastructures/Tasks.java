@@ -0,0 +1,56 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent tasks on an executor, or on the calling thread if there is
+ * none, rethrowing the first exception thrown by a task.
+ */
+public final class Tasks {
+
+    private Tasks() {
+        // static utility class
+    }
+
+    /**
+     * Runs the given tasks and returns their results in the same order.
+     *
+     * @param executor runs the tasks, or null to run them on the calling
+     * thread
+     * @throws RuntimeException the exception thrown by a task, if any
+     */
+    public static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+        List<T> rtrn = new ArrayList<>(tasks.size());
+        try {
+            if (executor == null) {
+                for (Callable<T> task : tasks) {
+                    rtrn.add(task.call());
+                }
+                return rtrn;
+            }
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                rtrn.add(future.get());
+            }
+            return rtrn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running tasks", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
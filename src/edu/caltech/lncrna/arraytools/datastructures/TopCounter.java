@@ -0,0 +1,379 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Approximately counts occurrences of non-negative integer keys in a fixed
+ * amount of memory, keeping only the most frequent keys.
+ * <p>
+ * This is the Space-Saving algorithm of Metwally, Agrawal and El Abbadi. At
+ * most <code>capacity</code> keys are monitored. A key that is not monitored
+ * when the counter is full takes the place of the key with the smallest
+ * count, and inherits that count as its error. So, after a total of
+ * <i>N</i> has been counted:
+ * <ul>
+ * <li>every count is at least the true count of its key, and at most its
+ * {@link #getError(int) error} above it;
+ * <li>no error exceeds <i>N</i> / <code>capacity</code>;
+ * <li>every key whose true count exceeds <i>N</i> / <code>capacity</code> is
+ * monitored.
+ * </ul>
+ * Merging another counter with {@link #addAll(TopCounter)} keeps the first
+ * two guarantees, with <i>N</i> the total counted by both, provided that both
+ * counters have the same capacity. A key that a full counter does not
+ * monitor may have been counted up to its smallest count, so the key is
+ * credited with that count, as both count and error, before the most
+ * frequent keys of the two counters are kept. A merged counter may not
+ * monitor every key whose true count exceeds <i>N</i> / <code>capacity</code>.
+ * <p>
+ * Keys are held in a min-heap on their counts, indexed by an
+ * open-addressing hash table with linear probing. They are reported in
+ * descending order of count.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class TopCounter {
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+
+    /**
+     * The heap position of each monitored key, by hash of the key.
+     */
+    private final int[] slots;
+
+    /**
+     * The monitored keys with their counts and errors, as a min-heap on
+     * count.
+     */
+    private final int[] keys;
+    private final int[] counts;
+    private final int[] errors;
+    private int size;
+
+    /**
+     * Heap positions in descending order of count, or null if the counts
+     * have changed since they were last reported.
+     */
+    private int[] order;
+
+    /**
+     * @param capacity the maximum number of keys to monitor
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public TopCounter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: "
+                    + capacity);
+        }
+        this.capacity = capacity;
+        slots = new int[Integer.highestOneBit(capacity) << 2];
+        Arrays.fill(slots, EMPTY);
+        keys = new int[capacity];
+        counts = new int[capacity];
+        errors = new int[capacity];
+        size = 0;
+    }
+
+    /**
+     * Adds one to the count of the given key.
+     *
+     * @throws IllegalArgumentException if the key is negative
+     */
+    public void increment(int key) {
+        add(key, 1, 0);
+    }
+
+    /**
+     * Adds an amount to the count of the given key.
+     *
+     * @throws IllegalArgumentException if the key is negative or the amount
+     * is not positive
+     */
+    public void add(int key, int amount) {
+        add(key, amount, 0);
+    }
+
+    /**
+     * Adds the exact counts of an {@link IntCounter} to this counter.
+     */
+    public void addAll(IntCounter other) {
+        for (int i = 0; i < other.size(); i++) {
+            add(other.getKey(i), other.getCount(i), 0);
+        }
+    }
+
+    /**
+     * Adds the counts of another counter to this one, carrying over their
+     * errors, and keeps the most frequent keys of the two.
+     */
+    public void addAll(TopCounter other) {
+        int thisMin = size == capacity ? counts[0] : 0;
+        int otherMin = other.size == other.capacity ? other.counts[0] : 0;
+
+        int[] mergedKeys = new int[size + other.size];
+        int[] mergedCounts = new int[mergedKeys.length];
+        int[] mergedErrors = new int[mergedKeys.length];
+        int numMerged = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = other.find(keys[i]);
+            mergedKeys[numMerged] = keys[i];
+            mergedCounts[numMerged] = counts[i]
+                    + (slot >= 0 ? other.counts[other.slots[slot]] : otherMin);
+            mergedErrors[numMerged] = errors[i]
+                    + (slot >= 0 ? other.errors[other.slots[slot]] : otherMin);
+            numMerged++;
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (find(other.keys[i]) < 0) {
+                mergedKeys[numMerged] = other.keys[i];
+                mergedCounts[numMerged] = other.counts[i] + thisMin;
+                mergedErrors[numMerged] = other.errors[i] + thisMin;
+                numMerged++;
+            }
+        }
+
+        // Keep the keys with the largest counts.
+        long[] sorted = new long[numMerged];
+        for (int i = 0; i < numMerged; i++) {
+            sorted[i] = ((long) (Integer.MAX_VALUE - mergedCounts[i]) << 32) | i;
+        }
+        Arrays.sort(sorted);
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        order = null;
+        for (int j = 0; j < Math.min(numMerged, capacity); j++) {
+            int i = (int) sorted[j];
+            keys[size] = mergedKeys[i];
+            counts[size] = mergedCounts[i];
+            errors[size] = mergedErrors[i];
+            slots[-find(mergedKeys[i]) - 1] = size;
+            siftUp(size++);
+        }
+    }
+
+    private void add(int key, int amount, int error) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key must be non-negative: " + key);
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+        order = null;
+        int slot = find(key);
+        if (slot >= 0) {
+            int i = slots[slot];
+            counts[i] += amount;
+            errors[i] += error;
+            siftDown(i);
+            return;
+        }
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = amount;
+            errors[size] = error;
+            slots[-slot - 1] = size;
+            siftUp(size++);
+            return;
+        }
+        // Replace the key with the smallest count, which may have been
+        // counted up to that many times without being monitored.
+        remove(find(keys[0]));
+        int evicted = counts[0];
+        keys[0] = key;
+        counts[0] = evicted + amount;
+        errors[0] = evicted + error;
+        slots[-find(key) - 1] = 0;
+        siftDown(0);
+    }
+
+    /**
+     * Returns the maximum number of keys monitored.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of keys monitored.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the <i>i</i>th monitored key, in descending order of count.
+     */
+    public int getKey(int i) {
+        return keys[position(i)];
+    }
+
+    /**
+     * Returns the count of the <i>i</i>th monitored key, in descending order
+     * of count. This is at least the true count of the key.
+     */
+    public int getCount(int i) {
+        return counts[position(i)];
+    }
+
+    /**
+     * Returns the most by which the count of the <i>i</i>th monitored key, in
+     * descending order of count, may exceed its true count.
+     */
+    public int getError(int i) {
+        return errors[position(i)];
+    }
+
+    /**
+     * Two counters are equal if they monitor the same keys with the same
+     * counts and errors, in any order.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof TopCounter)) {
+            return false;
+        }
+        TopCounter o = (TopCounter) other;
+        if (size != o.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            int slot = o.find(keys[i]);
+            if (slot < 0 || o.counts[o.slots[slot]] != counts[i]
+                    || o.errors[o.slots[slot]] != errors[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int rtrn = 0;
+        for (int i = 0; i < size; i++) {
+            rtrn += mix(keys[i]) ^ (31 * counts[i] + errors[i]);
+        }
+        return rtrn;
+    }
+
+    /**
+     * Returns the heap position of the <i>i</i>th key in descending order of
+     * count, breaking ties by key.
+     */
+    private int position(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of "
+                    + "bounds for " + size + " keys");
+        }
+        if (order == null) {
+            long[] sorted = new long[size];
+            for (int j = 0; j < size; j++) {
+                sorted[j] = ((long) (Integer.MAX_VALUE - counts[j]) << 32) | keys[j];
+            }
+            Arrays.sort(sorted);
+            order = new int[size];
+            for (int j = 0; j < size; j++) {
+                order[j] = slots[find((int) sorted[j])];
+            }
+        }
+        return order[i];
+    }
+
+    /**
+     * Returns the slot holding the given key, or, if there is none,
+     * <code>-(slot + 1)</code> for the empty slot where it would go.
+     */
+    private int find(int key) {
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != EMPTY) {
+            if (keys[slots[slot]] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    /**
+     * Empties a slot, moving back any later keys in its run that would
+     * otherwise no longer be found.
+     */
+    private void remove(int slot) {
+        int mask = slots.length - 1;
+        slots[slot] = EMPTY;
+        for (int next = (slot + 1) & mask; slots[next] != EMPTY; next = (next + 1) & mask) {
+            int home = mix(keys[slots[next]]) & mask;
+            // The key may move back unless its home lies cyclically in
+            // (slot, next].
+            boolean stays = slot <= next
+                    ? slot < home && home <= next
+                    : slot < home || home <= next;
+            if (!stays) {
+                slots[slot] = slots[next];
+                slots[next] = EMPTY;
+                slot = next;
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[i] <= counts[child]) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int slotOfI = find(keys[i]);
+        int slotOfJ = find(keys[j]);
+        slots[slotOfI] = j;
+        slots[slotOfJ] = i;
+        int key = keys[i];
+        int count = counts[i];
+        int error = errors[i];
+        keys[i] = keys[j];
+        counts[i] = counts[j];
+        errors[i] = errors[j];
+        keys[j] = key;
+        counts[j] = count;
+        errors[j] = error;
+    }
+
+    /**
+     * Spreads consecutive keys across the table.
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,225 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import edu.caltech.lncrna.arraytools.datastructures.AnnotationTrack;
+
+/**
+ * A binary file holding annotation tracks that have already been parsed and
+ * indexed, so that later runs can memory-map them instead of parsing the
+ * source files again.
+ * <p>
+ * The file records the length, modification time and CRC32 checksum of every
+ * source file the tracks were built from. {@link #read(Path, List)} refuses
+ * a file whose sources have changed since it was written. A source with the
+ * recorded length and modification time is taken to be unchanged, so the
+ * sources are only read in full to check one whose modification time
+ * differs, or when the index is written.
+ * <p>
+ * The tracks are read as views of the mapped file rather than copies.
+ * <p>
+ * The whole file is mapped at once, so it may not exceed 2 GB.
+ */
+public final class AnnotationIndexFile {
+
+    private static final int MAGIC = 0x54504149;
+    private static final int VERSION = 3;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Source files are checksummed through mappings of this size.
+     */
+    private static final long CHECKSUM_WINDOW = 1L << 30;
+
+    private static final Logger LOGGER = Logger.getLogger("AnnotationIndexFile");
+
+    private AnnotationIndexFile() {
+        // static utility class
+    }
+
+    /**
+     * Writes the given tracks to an index file.
+     * <p>
+     * The file is first written alongside the destination and then moved into
+     * place, so a reader never sees a partially written index.
+     *
+     * @param path the index file to write
+     * @param sources the files the tracks were built from
+     * @param tracks the tracks to write
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    public static void write(Path path, List<Path> sources, List<AnnotationTrack> tracks) {
+        List<long[]> signatures = new ArrayList<>();
+        for (Path source : sources) {
+            signatures.add(signature(source));
+        }
+
+        long size = 3 * Integer.BYTES + 3L * Long.BYTES * signatures.size() + Integer.BYTES;
+        for (AnnotationTrack track : tracks) {
+            size += track.serializedSize();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Annotation index would be "
+                    + size + " bytes, larger than the 2 GB limit.");
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = fc.map(MapMode.READ_WRITE, 0, size);
+            buffer.order(ORDER);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(signatures.size());
+            for (long[] signature : signatures) {
+                buffer.putLong(signature[0]);
+                buffer.putLong(signature[1]);
+                buffer.putLong(signature[2]);
+            }
+            buffer.putInt(tracks.size());
+            for (AnnotationTrack track : tracks) {
+                track.writeTo(buffer);
+            }
+            buffer.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write annotation index "
+                    + tmp, e);
+        }
+
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not move annotation index "
+                    + "into place at " + path, e);
+        }
+    }
+
+    /**
+     * Reads the tracks from an index file.
+     *
+     * @param path the index file to read
+     * @param sources the files the tracks should have been built from, in the
+     * order they were given to {@link #write(Path, List, List)}
+     * @return the tracks, or an empty <code>Optional</code> if the file does
+     * not exist, has an unknown format, or was built from different sources
+     * @throws UncheckedIOException if an existing file cannot be read
+     */
+    public static Optional<List<AnnotationTrack>> read(Path path, List<Path> sources) {
+        if (!Files.exists(path)) {
+            LOGGER.info("Annotation index " + path + " does not exist.");
+            return Optional.empty();
+        }
+
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = fc.map(MapMode.READ_ONLY, 0, fc.size());
+            buffer.order(ORDER);
+            if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) {
+                LOGGER.warning(path + " is not an annotation index.");
+                return Optional.empty();
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                LOGGER.info("Annotation index " + path + " has version "
+                        + version + ", expected " + VERSION + ".");
+                return Optional.empty();
+            }
+
+            int numSources = buffer.getInt();
+            if (numSources != sources.size()) {
+                LOGGER.info("Annotation index " + path + " was built from "
+                        + numSources + " files, expected " + sources.size() + ".");
+                return Optional.empty();
+            }
+            for (Path source : sources) {
+                long length = buffer.getLong();
+                long modified = buffer.getLong();
+                long checksum = buffer.getLong();
+                if (!isUnchanged(source, length, modified, checksum)) {
+                    LOGGER.info("Annotation index " + path + " is out of date "
+                            + "with respect to " + source + ".");
+                    return Optional.empty();
+                }
+            }
+
+            int numTracks = buffer.getInt();
+            List<AnnotationTrack> tracks = new ArrayList<>(numTracks);
+            for (int i = 0; i < numTracks; i++) {
+                tracks.add(AnnotationTrack.readFrom(buffer));
+            }
+            return Optional.of(Collections.unmodifiableList(tracks));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read annotation index "
+                    + path, e);
+        }
+    }
+
+    /**
+     * Returns whether a source file still has the recorded length and either
+     * the recorded modification time or, failing that, the recorded
+     * checksum.
+     */
+    private static boolean isUnchanged(Path source, long length, long modified,
+            long checksum) {
+        try {
+            if (Files.size(source) != length) {
+                return false;
+            }
+            if (Files.getLastModifiedTime(source).toMillis() == modified) {
+                return true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the attributes of "
+                    + source, e);
+        }
+        LOGGER.info(source + " has been modified since the annotation index "
+                + "was written. Comparing checksums.");
+        return checksum(source) == checksum;
+    }
+
+    /**
+     * Returns the length, modification time and CRC32 checksum of a file.
+     */
+    private static long[] signature(Path source) {
+        try {
+            long modified = Files.getLastModifiedTime(source).toMillis();
+            return new long[] {Files.size(source), modified, checksum(source)};
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the attributes of "
+                    + source, e);
+        }
+    }
+
+    /**
+     * Returns the CRC32 checksum of a file.
+     */
+    private static long checksum(Path source) {
+        CRC32 crc = new CRC32();
+        try (FileChannel fc = FileChannel.open(source, StandardOpenOption.READ)) {
+            long length = fc.size();
+            for (long offset = 0; offset < length; offset += CHECKSUM_WINDOW) {
+                long size = Math.min(CHECKSUM_WINDOW, length - offset);
+                crc.update(fc.map(MapMode.READ_ONLY, offset, size));
+            }
+            return crc.getValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not checksum " + source, e);
+        }
+    }
+}
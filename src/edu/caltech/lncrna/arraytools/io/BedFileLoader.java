@@ -0,0 +1,532 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntFunction;
+
+import edu.caltech.lncrna.arraytools.datastructures.IntArrayList;
+import edu.caltech.lncrna.arraytools.datastructures.NamedAnnotation;
+import edu.caltech.lncrna.arraytools.datastructures.Tasks;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+import edu.caltech.lncrna.bio.annotation.BedFileRecord;
+import edu.caltech.lncrna.bio.annotation.Strand;
+
+/**
+ * Loads a BED file by parsing the bytes of a memory-mapped file, optionally
+ * in parallel.
+ * <p>
+ * {@link edu.caltech.lncrna.bio.io.BedParser} decodes each line into a
+ * <code>String</code>, splits it with a regular expression and parses each
+ * field from its own substring. This loader instead finds the fields of a
+ * line in the mapped bytes and parses the integer fields in place, creating
+ * strings only for the reference and name. Consecutive records on the same
+ * reference share one reference string.
+ * <p>
+ * The file is divided into chunks that end at line breaks, and each chunk is
+ * parsed as a separate task. Records are loaded as {@link NamedAnnotation}s,
+ * which keep only the reference, strand, blocks and name of the records that
+ * <code>BedParser</code> would return; the score, coding region and color are
+ * neither parsed nor stored. Within a chunk, records with the same name share
+ * one name string. Records that differ only in the fields that are not kept
+ * are given different variant numbers, so they stay as distinct as their
+ * <code>BedFileRecord</code>s. Unlike <code>BedParser</code>, this loader skips blank
+ * lines and <code>#</code>, <code>track</code> and <code>browser</code> header
+ * lines.
+ */
+public final class BedFileLoader {
+
+    /**
+     * The largest chunk that is mapped at once.
+     */
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private static final int MAX_FIELDS = 12;
+
+    private BedFileLoader() {
+        // static utility class
+    }
+
+    /**
+     * Loads every record of a BED file, keeping only the columns that locate
+     * and name each record.
+     *
+     * @param path the BED file
+     * @param executor runs the chunks, or null to parse them on the calling
+     * thread
+     * @param numChunks the number of chunks to divide the file into; more are
+     * used if the file is too large to map in this many
+     * @return the records, in file order; records without a name are named
+     * the empty string, as a <code>BedFileRecord</code> would be
+     * @throws UncheckedIOException if the file cannot be read
+     * @throws IllegalArgumentException if a line is not a valid BED record
+     */
+    public static List<NamedAnnotation> loadNamed(Path path,
+            ExecutorService executor, int numChunks) {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = findChunks(fc, numChunks);
+            List<Callable<ChunkParser>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(() -> new ChunkParser(path, map(fc, path, from, to), from)
+                        .parse());
+            }
+            List<ChunkParser> chunks = Tasks.invokeAll(executor, tasks);
+            List<NamedAnnotation> rtrn = new ArrayList<>();
+            chunks.forEach(chunk -> rtrn.addAll(chunk.records));
+            numberVariants(rtrn, chunks, executor);
+            return rtrn;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    /**
+     * Numbers the variants of records that are equal as named annotations,
+     * so that only records that <code>BedParser</code> would also return as
+     * equal remain equal.
+     * <p>
+     * Records are grouped by their named annotations, one reference per
+     * task. Equal named annotations are rare, so the records in a group are
+     * only then parsed again from their lines, in full, and compared as
+     * <code>BedFileRecord</code>s. The first record of each distinct
+     * <code>BedFileRecord</code> in a group gives it the next variant number.
+     */
+    private static void numberVariants(List<NamedAnnotation> records,
+            List<ChunkParser> chunks, ExecutorService executor) {
+        int[] chunkStarts = new int[chunks.size()];
+        for (int c = 1; c < chunkStarts.length; c++) {
+            chunkStarts[c] = chunkStarts[c - 1] + chunks.get(c - 1).records.size();
+        }
+        IntFunction<BedFileRecord> sources = i -> {
+            int c = Arrays.binarySearch(chunkStarts, i);
+            // Empty chunks share their start with the next chunk.
+            c = c < 0 ? -c - 2 : c;
+            while (c + 1 < chunkStarts.length && chunkStarts[c + 1] == i) {
+                c++;
+            }
+            return chunks.get(c).parseRecord(i - chunkStarts[c]);
+        };
+
+        Map<String, IntArrayList> partitions = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            partitions.computeIfAbsent(records.get(i).getReferenceName(),
+                    x -> new IntArrayList()).add(i);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(partitions.size());
+        for (IntArrayList positions : partitions.values()) {
+            tasks.add(() -> {
+                // The position of the first record of each group, replaced by
+                // the positions of the first record of every variant once a
+                // group has more than one record.
+                Map<NamedAnnotation, Object> groups = new HashMap<>(
+                        positions.size() * 4 / 3 + 1);
+                for (int j = 0; j < positions.size(); j++) {
+                    int i = positions.get(j);
+                    NamedAnnotation record = records.get(i);
+                    Object group = groups.putIfAbsent(record, i);
+                    if (group == null) {
+                        continue;
+                    }
+                    IntArrayList variants;
+                    if (group instanceof IntArrayList) {
+                        variants = (IntArrayList) group;
+                    } else {
+                        variants = new IntArrayList(2);
+                        variants.add((Integer) group);
+                        groups.put(record, variants);
+                    }
+                    BedFileRecord source = sources.apply(i);
+                    int variant = 0;
+                    while (variant < variants.size()
+                            && !sources.apply(variants.get(variant)).equals(source)) {
+                        variant++;
+                    }
+                    if (variant == variants.size()) {
+                        variants.add(i);
+                    }
+                    if (variant > 0) {
+                        records.set(i, new NamedAnnotation(record,
+                                record.getName(), variant));
+                    }
+                }
+                return null;
+            });
+        }
+        Tasks.invokeAll(executor, tasks);
+    }
+
+    /**
+     * Maps the bytes of a file from one offset to another.
+     *
+     * @throws UncheckedIOException if the bytes cannot be mapped
+     */
+    private static MappedByteBuffer map(FileChannel fc, Path path, long from,
+            long to) {
+        try {
+            return fc.map(MapMode.READ_ONLY, from, to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    /**
+     * Divides a file into chunks of roughly equal size that each end just
+     * after a line break or at the end of the file.
+     *
+     * @return the offsets at which the chunks start, followed by the size of
+     * the file
+     */
+    private static long[] findChunks(FileChannel fc, int numChunks) throws IOException {
+        long size = fc.size();
+        long minChunks = (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE;
+        numChunks = (int) Math.max(Math.max(numChunks, minChunks), 1);
+
+        List<Long> rtrn = new ArrayList<>();
+        rtrn.add(0L);
+        for (int i = 1; i < numChunks; i++) {
+            long nominal = size * i / numChunks;
+            long bound = nextLineStart(fc, Math.max(nominal, rtrn.get(rtrn.size() - 1)));
+            if (bound > rtrn.get(rtrn.size() - 1) && bound < size) {
+                rtrn.add(bound);
+            }
+        }
+        rtrn.add(size);
+
+        long[] bounds = new long[rtrn.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = rtrn.get(i);
+            if (i > 0 && bounds[i] - bounds[i - 1] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("A line of the BED file is "
+                        + "longer than 2 GB.");
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the offset just after the first line break at or after the
+     * given offset, or the size of the file if there is none.
+     */
+    private static long nextLineStart(FileChannel fc, long offset) throws IOException {
+        long size = fc.size();
+        long window = 1 << 16;
+        while (offset < size) {
+            MappedByteBuffer buffer = fc.map(MapMode.READ_ONLY, offset,
+                    Math.min(window, size - offset));
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += buffer.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Parses the lines of one chunk into named annotations, skipping the
+     * score, coding region and color columns.
+     */
+    private static final class ChunkParser {
+
+        private static final String EMPTY_NAME = "";
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final long offset;
+
+        private final int[] fieldStarts = new int[MAX_FIELDS];
+        private final int[] fieldEnds = new int[MAX_FIELDS];
+        private byte[] scratch = new byte[256];
+
+        private String reference = null;
+        private int referenceStart = -1;
+        private int referenceEnd = -1;
+        private final Map<String, String> names = new HashMap<>();
+
+        /**
+         * The records of this chunk, and where the line of each starts.
+         */
+        private final List<NamedAnnotation> records = new ArrayList<>();
+        private final IntArrayList lineStarts = new IntArrayList();
+
+        private ChunkParser(Path path, MappedByteBuffer buffer, long offset) {
+            this.path = path;
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        private ChunkParser parse() {
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                NamedAnnotation record = parseLine(lineStart, lineEnd);
+                if (record != null) {
+                    records.add(record);
+                    lineStarts.add(lineStart);
+                }
+                lineStart = lineEnd + 1;
+            }
+            return this;
+        }
+
+        /**
+         * Parses the line of a record of this chunk in full, as
+         * <code>BedParser</code> would. This may be called from several
+         * threads once the chunk has been parsed.
+         *
+         * @param i the position of the record in this chunk
+         */
+        private BedFileRecord parseRecord(int i) {
+            int from = lineStarts.get(i);
+            int to = from;
+            while (to < buffer.limit() && buffer.get(to) != '\n') {
+                to++;
+            }
+            byte[] line = new byte[to - from];
+            for (int j = 0; j < line.length; j++) {
+                line[j] = buffer.get(from + j);
+            }
+            return BedFileRecord.fromFormattedString(
+                    new String(line, StandardCharsets.UTF_8).trim());
+        }
+
+        /**
+         * Parses one line, without its line break.
+         *
+         * @return the record, or null if the line is blank or a header
+         */
+        private NamedAnnotation parseLine(int from, int to) {
+            int numFields = 0;
+            int i = from;
+            while (true) {
+                while (i < to && isSpace(buffer.get(i))) {
+                    i++;
+                }
+                if (i == to) {
+                    break;
+                }
+                if (numFields == MAX_FIELDS) {
+                    throw malformed(from, to, "more than " + MAX_FIELDS + " fields");
+                }
+                fieldStarts[numFields] = i;
+                while (i < to && !isSpace(buffer.get(i))) {
+                    i++;
+                }
+                fieldEnds[numFields++] = i;
+            }
+
+            if (numFields == 0 || isHeader(fieldStarts[0], fieldEnds[0])) {
+                return null;
+            }
+            if (numFields < 3 || numFields == 7 || numFields == 10 || numFields == 11) {
+                throw malformed(from, to, numFields + " fields. A BED record "
+                        + "must have between three and twelve fields, and "
+                        + "cannot have seven, ten or eleven fields");
+            }
+
+            Annotation.AnnotationBuilder builder = Annotation.builder();
+            addBlocks(builder, numFields, from, to);
+            return new NamedAnnotation(builder.build(), numFields >= 4
+                    ? parseName(fieldStarts[3], fieldEnds[3])
+                    : EMPTY_NAME);
+        }
+
+        /**
+         * Adds the blocks of the current line to a builder. Coordinates are
+         * shifted by one, as in <code>BedFileRecord.fromFormattedString()</code>.
+         */
+        private void addBlocks(Annotation.AnnotationBuilder builder, int numFields,
+                int from, int to) {
+            String ref = parseReference(fieldStarts[0], fieldEnds[0]);
+            int start = parseInt(1, from, to) + 1;
+            int end = parseInt(2, from, to) + 1;
+
+            if (numFields == 12) {
+                Strand strand = parseStrand(5);
+                int blockCount = parseInt(9, from, to);
+                int[] blockSizes = parseIntList(10, from, to);
+                int[] blockStarts = parseIntList(11, from, to);
+                if (blockCount != blockSizes.length || blockCount != blockStarts.length) {
+                    throw malformed(from, to, "blockCount = " + blockCount
+                            + ", blockSizes = " + blockSizes.length
+                            + ", and blockStarts = " + blockStarts.length
+                            + ". All should be equal");
+                }
+                for (int j = 0; j < blockCount; j++) {
+                    builder.addAnnotation(new Annotation(ref, start + blockStarts[j],
+                            start + blockStarts[j] + blockSizes[j], strand));
+                }
+            } else if (numFields >= 6) {
+                builder.addAnnotation(new Annotation(ref, start, end, parseStrand(5)));
+            } else {
+                builder.addAnnotation(new Annotation(ref, start, end, Strand.BOTH));
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == '\t' || b == ' ' || b == '\r' || b == '\f' || b == 0x0B;
+        }
+
+        private boolean isHeader(int from, int to) {
+            return buffer.get(from) == '#' || equalsAscii(from, to, "track")
+                    || equalsAscii(from, to, "browser");
+        }
+
+        private boolean equalsAscii(int from, int to, String s) {
+            if (to - from != s.length()) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (buffer.get(from + i) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the reference name in the given field, reusing the string
+         * of the previous record if it has the same reference.
+         */
+        private String parseReference(int from, int to) {
+            if (reference != null && to - from == referenceEnd - referenceStart) {
+                boolean same = true;
+                for (int i = 0; i < to - from && same; i++) {
+                    same = buffer.get(from + i) == buffer.get(referenceStart + i);
+                }
+                if (same) {
+                    referenceStart = from;
+                    referenceEnd = to;
+                    return reference;
+                }
+            }
+            reference = parseString(from, to);
+            referenceStart = from;
+            referenceEnd = to;
+            return reference;
+        }
+
+        /**
+         * Returns the name in the given field, reusing the string of an
+         * earlier record in this chunk with the same name.
+         */
+        private String parseName(int from, int to) {
+            String name = parseString(from, to);
+            String rtrn = names.putIfAbsent(name, name);
+            return rtrn == null ? name : rtrn;
+        }
+
+        private String parseString(int from, int to) {
+            int length = to - from;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(from + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private Strand parseStrand(int field) {
+            int from = fieldStarts[field];
+            if (fieldEnds[field] - from == 1) {
+                switch (buffer.get(from)) {
+                case '+':
+                    return Strand.POSITIVE;
+                case '-':
+                    return Strand.NEGATIVE;
+                default:
+                    break;
+                }
+            }
+            return Strand.fromString(parseString(from, fieldEnds[field]));
+        }
+
+        private int parseInt(int field, int lineFrom, int lineTo) {
+            int from = fieldStarts[field];
+            int to = fieldEnds[field];
+            boolean negative = buffer.get(from) == '-';
+            int i = negative ? from + 1 : from;
+            if (i == to) {
+                throw malformed(lineFrom, lineTo, "field " + (field + 1)
+                        + " is not an integer");
+            }
+            long value = 0;
+            for (; i < to; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                    throw malformed(lineFrom, lineTo, "field " + (field + 1)
+                            + " is not an integer");
+                }
+                value = 10 * value + digit;
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+                throw malformed(lineFrom, lineTo, "field " + (field + 1)
+                        + " is not an integer");
+            }
+            return (int) value;
+        }
+
+        /**
+         * Parses a comma-separated list of integers, which may end with a
+         * comma.
+         */
+        private int[] parseIntList(int field, int lineFrom, int lineTo) {
+            int[] rtrn = new int[8];
+            int n = 0;
+            int from = fieldStarts[field];
+            int to = fieldEnds[field];
+            int value = 0;
+            boolean inNumber = false;
+            for (int i = from; i <= to; i++) {
+                byte b = i < to ? buffer.get(i) : (byte) ',';
+                if (b == ',') {
+                    if (inNumber) {
+                        if (n == rtrn.length) {
+                            rtrn = Arrays.copyOf(rtrn, 2 * n);
+                        }
+                        rtrn[n++] = value;
+                    } else if (i < to) {
+                        throw malformed(lineFrom, lineTo, "field " + (field + 1)
+                                + " is not a list of integers");
+                    }
+                    value = 0;
+                    inNumber = false;
+                } else if (b >= '0' && b <= '9' && value <= (Integer.MAX_VALUE - 9) / 10) {
+                    value = 10 * value + (b - '0');
+                    inNumber = true;
+                } else {
+                    throw malformed(lineFrom, lineTo, "field " + (field + 1)
+                            + " is not a list of integers");
+                }
+            }
+            return Arrays.copyOf(rtrn, n);
+        }
+
+        private IllegalArgumentException malformed(int from, int to, String reason) {
+            return new IllegalArgumentException("Malformed BED record at byte "
+                    + (offset + from) + " of " + path + " (" + reason + "): "
+                    + parseString(from, to));
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.BlockGunzipper;
+
+import edu.caltech.lncrna.bio.alignment.SingleRead;
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+
+/**
+ * A reader for single-read BAM files that inflates BGZF blocks on a pool of
+ * threads.
+ * <p>
+ * htsjdk inflates each block on the thread that decodes records, which limits
+ * a large BAM file to the speed of one core. This reader instead reads the
+ * compressed blocks ahead of the decoder and hands them to a fixed pool of
+ * inflater threads, keeping a bounded number of blocks in flight. The
+ * inflated blocks are consumed in file order, so records are returned in the
+ * same order, and as the same alignments, as
+ * {@link edu.caltech.lncrna.bio.io.SingleReadBamParser#getAlignmentIterator()}.
+ * <p>
+ * Records are still decoded on the calling thread. This class is not
+ * thread-safe.
+ */
+public final class ParallelBamReader implements Closeable {
+
+    private static final byte[] BAM_MAGIC = {'B', 'A', 'M', 1};
+
+    private final SAMFileHeader header;
+    private final ExecutorService inflaters;
+    private final BlockInputStream in;
+    private final BAMRecordCodec codec;
+
+    /**
+     * Opens a BAM file for reading.
+     *
+     * @param path the BAM file
+     * @param threads the number of threads that inflate blocks
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    public ParallelBamReader(Path path, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be "
+                    + "positive: " + threads);
+        }
+        header = SamReaderFactory.makeDefault()
+                .validationStringency(ValidationStringency.SILENT)
+                .getFileHeader(path.toFile());
+        inflaters = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bgzf-inflater");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            in = new BlockInputStream(new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(path), 1 << 16)), inflaters, 4 * threads);
+            skipHeader(new DataInputStream(in));
+        } catch (IOException e) {
+            inflaters.shutdownNow();
+            throw new UncheckedIOException("Could not open " + path, e);
+        }
+        codec = new BAMRecordCodec(header);
+        codec.setInputStream(in, path.toString());
+    }
+
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the alignments of the mapped reads in this file, in file order.
+     */
+    public Iterator<SingleReadAlignment> getAlignmentIterator() {
+        return new Iterator<SingleReadAlignment>() {
+
+            private SingleReadAlignment next = findNext();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public SingleReadAlignment next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                SingleReadAlignment rtrn = next;
+                next = findNext();
+                return rtrn;
+            }
+
+            private SingleReadAlignment findNext() {
+                for (SAMRecord record = codec.decode(); record != null;
+                        record = codec.decode()) {
+                    Optional<SingleReadAlignment> alignment =
+                            new SingleRead(record).getAlignment();
+                    if (alignment.isPresent()) {
+                        return alignment.get();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the alignments of the mapped reads in this file, in file order.
+     */
+    public Stream<SingleReadAlignment> getAlignmentStream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                getAlignmentIterator(), Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    @Override
+    public void close() {
+        inflaters.shutdownNow();
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads past the binary BAM header. The header itself has already been
+     * parsed by htsjdk.
+     */
+    private static void skipHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[BAM_MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != BAM_MAGIC[i]) {
+                throw new SAMFormatException("Not a BAM file");
+            }
+        }
+        skipFully(in, readInt(in));
+        int numReferences = readInt(in);
+        for (int i = 0; i < numReferences; i++) {
+            skipFully(in, readInt(in) + Integer.BYTES);
+        }
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        if (in.skipBytes(n) != n) {
+            throw new EOFException("Truncated BAM header");
+        }
+    }
+
+    /**
+     * The inflated contents of a BGZF file. Compressed blocks are read on the
+     * calling thread and inflated on the pool, with up to a fixed number of
+     * blocks submitted ahead of the block being read.
+     */
+    private static final class BlockInputStream extends InputStream {
+
+        private static final ThreadLocal<BlockGunzipper> GUNZIPPERS =
+                ThreadLocal.withInitial(BlockGunzipper::new);
+
+        private final DataInputStream compressed;
+        private final ExecutorService inflaters;
+        private final int readAhead;
+        private final Deque<Future<byte[]>> pending;
+        private boolean exhausted;
+
+        private byte[] block;
+        private int position;
+
+        private BlockInputStream(DataInputStream compressed,
+                ExecutorService inflaters, int readAhead) {
+            this.compressed = compressed;
+            this.inflaters = inflaters;
+            this.readAhead = readAhead;
+            this.pending = new ArrayDeque<>(readAhead);
+            this.exhausted = false;
+            this.block = new byte[0];
+            this.position = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureData()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            pending.forEach(x -> x.cancel(true));
+            pending.clear();
+            compressed.close();
+        }
+
+        /**
+         * Makes sure the current block has unread data, moving on to later
+         * blocks as needed.
+         *
+         * @return false at the end of the file
+         */
+        private boolean ensureData() throws IOException {
+            while (position == block.length) {
+                fill();
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    block = pending.removeFirst().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while inflating BAM "
+                            + "blocks", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        /**
+         * Submits compressed blocks until the read-ahead limit is reached or
+         * the file ends.
+         */
+        private void fill() throws IOException {
+            while (!exhausted && pending.size() < readAhead) {
+                byte[] compressedBlock = readBlock();
+                if (compressedBlock == null) {
+                    exhausted = true;
+                    return;
+                }
+                pending.addLast(inflaters.submit(() -> inflate(compressedBlock)));
+            }
+        }
+
+        /**
+         * Reads one compressed block.
+         *
+         * @return the block, or null at the end of the file
+         */
+        private byte[] readBlock() throws IOException {
+            int headerLength = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+            byte[] header = new byte[headerLength];
+            int n = 0;
+            while (n < headerLength) {
+                int read = compressed.read(header, n, headerLength - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+            if (n == 0) {
+                return null;
+            }
+            if (n < headerLength || header[0] != BlockCompressedStreamConstants.GZIP_ID1
+                    || (header[1] & 0xFF) != BlockCompressedStreamConstants.GZIP_ID2
+                    || header[12] != BlockCompressedStreamConstants.BGZF_ID1
+                    || header[13] != BlockCompressedStreamConstants.BGZF_ID2) {
+                throw new SAMFormatException("Invalid BGZF block header");
+            }
+            int offset = BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET;
+            int blockLength = ((header[offset] & 0xFF)
+                    | (header[offset + 1] & 0xFF) << 8) + 1;
+            byte[] rtrn = new byte[blockLength];
+            System.arraycopy(header, 0, rtrn, 0, headerLength);
+            compressed.readFully(rtrn, headerLength, blockLength - headerLength);
+            return rtrn;
+        }
+
+        private static byte[] inflate(byte[] compressedBlock) {
+            int length = compressedBlock.length;
+            int uncompressedLength = (compressedBlock[length - 4] & 0xFF)
+                    | (compressedBlock[length - 3] & 0xFF) << 8
+                    | (compressedBlock[length - 2] & 0xFF) << 16
+                    | (compressedBlock[length - 1] & 0xFF) << 24;
+            byte[] rtrn = new byte[uncompressedLength];
+            GUNZIPPERS.get().unzipBlock(rtrn, compressedBlock, length);
+            return rtrn;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A writer for tab-separated text that encodes directly into a reusable byte
+ * buffer.
+ * <p>
+ * Strings are encoded without intermediate byte arrays when they are ASCII,
+ * and integers are written digit by digit without creating strings. The
+ * buffer is written to the underlying stream only when it fills or when the
+ * writer is flushed, so each row costs no system call and takes no lock.
+ * <p>
+ * A writer created without a stream keeps everything it is given in memory,
+ * growing its buffer as needed, until it is drained into another writer with
+ * {@link #drainTo(TsvWriter)}. This allows rows to be formatted on worker
+ * threads and written out in order.
+ * <p>
+ * This class is not thread-safe. I/O errors are rethrown as
+ * {@link UncheckedIOException}.
+ */
+public final class TsvWriter implements Closeable, Flushable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count;
+
+    /**
+     * Creates a writer to the given stream with a default buffer size.
+     */
+    public TsvWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer to the given stream with the given buffer size.
+     */
+    public TsvWriter(OutputStream out, int bufferSize) {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("Buffer size must be at least "
+                    + "16 bytes: " + bufferSize);
+        }
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+        this.count = 0;
+    }
+
+    /**
+     * Creates a writer that keeps its output in memory.
+     */
+    public TsvWriter() {
+        this.out = null;
+        this.buffer = new byte[1024];
+        this.count = 0;
+    }
+
+    /**
+     * Creates a writer to the given file, replacing it if it exists.
+     */
+    public static TsvWriter open(Path path) {
+        try {
+            return new TsvWriter(Files.newOutputStream(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + path
+                    + " for writing", e);
+        }
+    }
+
+    /**
+     * Creates a writer to standard output. The writer bypasses
+     * <code>System.out</code>, so it should not be mixed with other writes to
+     * standard output.
+     */
+    public static TsvWriter toStandardOutput() {
+        return new TsvWriter(new FileOutputStream(FileDescriptor.out));
+    }
+
+    public TsvWriter write(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        if (length > buffer.length - count) {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+            return this;
+        }
+        int start = count;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                count = start;
+                writeBytes(s.getBytes(StandardCharsets.UTF_8));
+                return this;
+            }
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a single ASCII character.
+     */
+    public TsvWriter write(char c) {
+        if (c >= 0x80) {
+            throw new IllegalArgumentException("Not an ASCII character: " + c);
+        }
+        ensureCapacity(1);
+        buffer[count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Writes the decimal representation of an integer.
+     */
+    public TsvWriter write(int value) {
+        ensureCapacity(11);
+        if (value == Integer.MIN_VALUE) {
+            return write(Integer.toString(value));
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int x = value; x >= 10; x /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    public TsvWriter tab() {
+        return write('\t');
+    }
+
+    public TsvWriter newline() {
+        return write('\n');
+    }
+
+    /**
+     * Writes everything held by this in-memory writer to another writer, and
+     * empties this writer so that it can be reused.
+     */
+    public void drainTo(TsvWriter other) {
+        if (out != null) {
+            throw new IllegalStateException("Only an in-memory writer can be drained");
+        }
+        other.writeBytes(buffer, 0, count);
+        count = 0;
+    }
+
+    @Override
+    public void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+            count = 0;
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the contents of this in-memory writer as a string.
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) {
+        if (out != null && length > buffer.length) {
+            flushBuffer();
+            try {
+                out.write(bytes, offset, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * Makes room for the given number of bytes, either by writing out the
+     * buffer or, for an in-memory writer, by growing it. A buffered writer
+     * may still have less room than requested if the request is larger than
+     * its buffer.
+     */
+    private void ensureCapacity(int length) {
+        if (length <= buffer.length - count) {
+            return;
+        }
+        if (out != null) {
+            flushBuffer();
+        } else {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            out.write(buffer, 0, count);
+            count = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReaderFactory;
+
+import edu.caltech.lncrna.arraytools.datastructures.NameDictionary;
+import edu.caltech.lncrna.arraytools.datastructures.NameTable;
+import edu.caltech.lncrna.arraytools.datastructures.Tasks;
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+import edu.caltech.lncrna.bio.io.SingleReadBamParser;
+
+/**
+ * Reads the probes from an indexed, coordinate-sorted BAM file, with one
+ * task per chromosome. Each task queries the BAM index for its chromosome
+ * and groups that chromosome's alignments into probes of its own; the
+ * probes of all chromosomes are then merged by name.
+ * <p>
+ * The tasks run on an executor if one is given, largest chromosome first,
+ * so that each worker decodes and classifies a separate part of the file.
+ */
+final class ChromosomeProbeLoader {
+
+    private final Path probesPath;
+    private final ProbeContext context;
+    private final Predicate<SingleReadAlignment> filter;
+    private final Function<SingleReadAlignment, Position> classifier;
+
+    private static final Logger LOGGER = Logger.getLogger("ChromosomeProbeLoader");
+
+    /**
+     * @param filter selects the alignments to read
+     * @param classifier computes the position of an alignment, or returns
+     * null if its probe has been rejected; called from several tasks at once
+     */
+    ChromosomeProbeLoader(Path probesPath, ProbeContext context,
+            Predicate<SingleReadAlignment> filter,
+            Function<SingleReadAlignment, Position> classifier) {
+        this.probesPath = probesPath;
+        this.context = context;
+        this.filter = filter;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Reads every chromosome and adds its probes to the given table.
+     *
+     * @param executor runs the chromosome tasks, or null to run them on the
+     * calling thread
+     */
+    void loadInto(NameTable<Probe> probes, ExecutorService executor) {
+        List<SAMSequenceRecord> sequences = SamReaderFactory.makeDefault()
+                .getFileHeader(probesPath.toFile())
+                .getSequenceDictionary()
+                .getSequences();
+
+        // Intern every reference name up front, so that tasks only read the
+        // dictionary.
+        NameDictionary referenceNames = context.getReferenceNames();
+        sequences.forEach(x -> referenceNames.intern(x.getSequenceName()));
+
+        List<SAMSequenceRecord> largestFirst = new ArrayList<>(sequences);
+        largestFirst.sort(Comparator.comparingInt(
+                SAMSequenceRecord::getSequenceLength).reversed());
+
+        List<NameTable<Probe>> shards = new ArrayList<>(
+                Collections.nCopies(sequences.size(), null));
+        List<Callable<Void>> tasks = new ArrayList<>(sequences.size());
+        for (SAMSequenceRecord sequence : largestFirst) {
+            tasks.add(() -> {
+                shards.set(sequence.getSequenceIndex(), loadChromosome(sequence));
+                return null;
+            });
+        }
+        Tasks.invokeAll(executor, tasks);
+
+        for (NameTable<Probe> shard : shards) {
+            for (int id = 0; id < shard.size(); id++) {
+                Probe probe = shard.get(id);
+                Probe existing = probes.putIfAbsent(probe.getName(), probe);
+                if (existing != null) {
+                    existing.addAll(probe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and classifies the alignments to one chromosome, grouping them
+     * into probes.
+     */
+    private NameTable<Probe> loadChromosome(SAMSequenceRecord sequence) {
+        NameTable<Probe> rtrn = new NameTable<>(() -> new Probe(context));
+        Annotation region = new Annotation(sequence.getSequenceName(), 0,
+                sequence.getSequenceLength());
+        int count = 0;
+        try (SingleReadBamParser bp = new SingleReadBamParser(probesPath, region)) {
+            Iterator<SingleReadAlignment> alignments = bp.getAlignmentIterator();
+            while (alignments.hasNext()) {
+                SingleReadAlignment a = alignments.next();
+                if (!filter.test(a)) {
+                    continue;
+                }
+                rtrn.getOrCreate(a.getName()).addPosition(a, classifier.apply(a));
+                count++;
+            }
+        }
+        LOGGER.fine("Loaded " + count + " alignments to "
+                + sequence.getSequenceName() + ".");
+        return rtrn;
+    }
+}
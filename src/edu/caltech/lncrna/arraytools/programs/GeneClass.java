@@ -0,0 +1,54 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.function.Predicate;
+
+import edu.caltech.lncrna.bio.annotation.Annotated;
+
+/**
+ * The relationship between a gene and the repeat annotations, which
+ * determines the output column that the gene is reported in.
+ */
+enum GeneClass {
+
+    /**
+     * No repeat overlaps the gene body.
+     */
+    NO_REPEATS,
+
+    /**
+     * At least one repeat overlaps an exon of the gene.
+     */
+    EXONS_WITH_REPEATS,
+
+    /**
+     * Repeats overlap the gene body, but only within introns.
+     */
+    INTRONS_WITH_REPEATS;
+
+    private static final GeneClass[] VALUES = values();
+
+    /**
+     * Returns the class with the given ordinal, as stored in the tag of
+     * a gene annotation.
+     */
+    static GeneClass fromOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Determines how a gene relates to the given repeats. The result depends
+     * only on the gene, so it is computed once per gene rather than once per
+     * probe alignment.
+     *
+     * @param repeatsOverlap returns whether any repeat overlaps an annotation
+     */
+    static GeneClass of(Predicate<Annotated> repeatsOverlap, Annotated gene) {
+        if (!repeatsOverlap.test(gene.getBody())) {
+            return NO_REPEATS;
+        } else if (repeatsOverlap.test(gene)) {
+            return EXONS_WITH_REPEATS;
+        } else {
+            return INTRONS_WITH_REPEATS;
+        }
+    }
+}
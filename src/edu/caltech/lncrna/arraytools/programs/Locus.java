@@ -0,0 +1,40 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+/**
+ * The span of an alignment, which is the key of the locus cache.
+ */
+final class Locus {
+
+    private final String reference;
+    private final int start;
+    private final int end;
+
+    Locus(String reference, int start, int end) {
+        this.reference = reference;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Locus)) {
+            return false;
+        }
+
+        Locus o = (Locus) other;
+        return start == o.start && end == o.end
+                && reference.equals(o.reference);
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = reference.hashCode();
+        hashCode = 37 * hashCode + start;
+        hashCode = 37 * hashCode + end;
+        return hashCode;
+    }
+}
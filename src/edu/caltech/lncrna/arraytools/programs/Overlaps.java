@@ -0,0 +1,99 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import edu.caltech.lncrna.arraytools.datastructures.BlockPlacement;
+import edu.caltech.lncrna.arraytools.datastructures.IntArrayList;
+
+/**
+ * The name IDs of the repeats and genes overlapping one alignment, with
+ * the genes divided by class or by where the alignment lands in them.
+ */
+final class Overlaps {
+
+    /**
+     * The output columns that count overlapping annotations, in output
+     * order, as indices into the name IDs of a {@link Position}.
+     */
+    static final int REPEATS = 0;
+    static final int GENES_NO_REPEATS = 1;
+    static final int GENES_EXONS_WITH_REPEATS = 2;
+    static final int GENES_INTRONS_WITH_REPEATS = 3;
+    static final int NUM_COLUMNS = 4;
+
+    /**
+     * With hit placement, the gene columns instead divide genes by where
+     * each alignment lands in them.
+     */
+    static final int GENES_HIT_IN_EXONS = 1;
+    static final int GENES_HIT_IN_INTRONS = 2;
+    static final int GENES_HIT_ACROSS_EXON_BOUNDARIES = 3;
+
+    /**
+     * The names of the output columns that count overlapping annotations,
+     * as written in the header.
+     */
+    private static final String[] COLUMN_NAMES = {"REPEATS",
+            "GENES_NO_REPEATS", "GENES_EXONS_WITH_REPEATS",
+            "GENES_INTRONS_WITH_REPEATS"};
+    private static final String[] HIT_PLACEMENT_COLUMN_NAMES = {"REPEATS",
+            "GENES_HIT_IN_EXONS", "GENES_HIT_IN_INTRONS",
+            "GENES_HIT_ACROSS_EXON_BOUNDARIES"};
+
+    private final IntArrayList[] columns = new IntArrayList[NUM_COLUMNS];
+
+    Overlaps() {
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+            columns[column] = new IntArrayList(4);
+        }
+    }
+
+    /**
+     * Returns the names of the output columns that count overlapping
+     * annotations, with or without hit placement.
+     */
+    static String[] columnNames(boolean hitPlacement) {
+        return hitPlacement ? HIT_PLACEMENT_COLUMN_NAMES : COLUMN_NAMES;
+    }
+
+    void addRepeat(int nameId) {
+        columns[REPEATS].add(nameId);
+    }
+
+    void addGene(int nameId, GeneClass geneClass) {
+        switch (geneClass) {
+        case NO_REPEATS:
+            columns[GENES_NO_REPEATS].add(nameId);
+            break;
+        case EXONS_WITH_REPEATS:
+            columns[GENES_EXONS_WITH_REPEATS].add(nameId);
+            break;
+        case INTRONS_WITH_REPEATS:
+            columns[GENES_INTRONS_WITH_REPEATS].add(nameId);
+            break;
+        }
+    }
+
+    void addGene(int nameId, BlockPlacement placement) {
+        switch (placement) {
+        case WITHIN_BLOCK:
+            columns[GENES_HIT_IN_EXONS].add(nameId);
+            break;
+        case WITHIN_GAP:
+            columns[GENES_HIT_IN_INTRONS].add(nameId);
+            break;
+        case ACROSS_BOUNDARY:
+            columns[GENES_HIT_ACROSS_EXON_BOUNDARIES].add(nameId);
+            break;
+        }
+    }
+
+    /**
+     * Returns the name IDs indexed by output column.
+     */
+    int[][] toNameIds() {
+        int[][] rtrn = new int[NUM_COLUMNS][];
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+            rtrn[column] = columns[column].toArray();
+        }
+        return rtrn;
+    }
+}
@@ -0,0 +1,93 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.Arrays;
+
+import edu.caltech.lncrna.bio.alignment.Alignment;
+
+/**
+ * Where a probe aligns, together with the names of any overlapping
+ * elements or genes. A position is only held until it is added to its
+ * probe, which stores it in a {@link PositionList}.
+ */
+final class Position {
+
+    private final String name;
+    private final String reference;
+    private final int start;
+    private final int end;
+    private final byte strand;
+
+    /**
+     * The name IDs of the overlapping annotations, indexed by output
+     * column. The arrays may be shared with other positions at the same
+     * locus, so they must not be modified.
+     */
+    private final int[][] nameIds;
+
+    Position(Alignment a, int[][] nameIds) {
+        name = a.getName();
+        reference = a.getReferenceName();
+        start = a.getStart();
+        end = a.getEnd();
+        strand = (byte) a.getStrand().ordinal();
+        this.nameIds = nameIds;
+    }
+
+    String getReference() {
+        return reference;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the ordinal of the strand of this position.
+     */
+    byte getStrand() {
+        return strand;
+    }
+
+    /**
+     * Returns the name IDs of the annotations overlapping this position in
+     * the given output column, which must not be modified.
+     */
+    int[] getNameIds(int column) {
+        return nameIds[column];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Position)) {
+            return false;
+        }
+
+        Position o = (Position) other;
+        return name.equals(o.name) &&
+                reference.equals(o.reference) &&
+                start == o.start &&
+                end == o.end &&
+                strand == o.strand &&
+                Arrays.deepEquals(nameIds, o.nameIds);
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = name.hashCode();
+        hashCode = 37 * hashCode + reference.hashCode();
+        hashCode = 37 * hashCode + start;
+        hashCode = 37 * hashCode + end;
+        hashCode = 37 * hashCode + strand;
+        hashCode = 37 * hashCode + Arrays.deepHashCode(nameIds);
+        return hashCode;
+    }
+}
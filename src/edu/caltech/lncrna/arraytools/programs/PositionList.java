@@ -0,0 +1,156 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.Arrays;
+
+import edu.caltech.lncrna.arraytools.datastructures.IntCounter;
+
+/**
+ * The positions of one probe, stored as parallel primitive arrays rather
+ * than as objects.
+ * <p>
+ * The name IDs of the annotations overlapping every position are
+ * concatenated into one array, position by position and column by column.
+ * For each position and column, <code>overlapEnds</code> records where
+ * that column's IDs end, so a position with few overlaps costs little
+ * more than its coordinates.
+ */
+final class PositionList {
+
+    private int size = 0;
+    private int[] referenceIds = new int[1];
+    private int[] starts = new int[1];
+    private int[] ends = new int[1];
+    private byte[] strands = new byte[1];
+    private int[] overlapEnds = new int[Overlaps.NUM_COLUMNS];
+    private int[] overlapIds = new int[4];
+    private int numOverlapIds = 0;
+
+    void add(int referenceId, Position position) {
+        ensureCapacity(size + 1);
+        referenceIds[size] = referenceId;
+        starts[size] = position.getStart();
+        ends[size] = position.getEnd();
+        strands[size] = position.getStrand();
+
+        int numIds = 0;
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            numIds += position.getNameIds(column).length;
+        }
+        ensureOverlapCapacity(numOverlapIds + numIds);
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            int[] ids = position.getNameIds(column);
+            System.arraycopy(ids, 0, overlapIds, numOverlapIds, ids.length);
+            numOverlapIds += ids.length;
+            overlapEnds[size * Overlaps.NUM_COLUMNS + column] = numOverlapIds;
+        }
+        size++;
+    }
+
+    /**
+     * Appends the positions of another list.
+     */
+    void addAll(PositionList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.referenceIds, 0, referenceIds, size, other.size);
+        System.arraycopy(other.starts, 0, starts, size, other.size);
+        System.arraycopy(other.ends, 0, ends, size, other.size);
+        System.arraycopy(other.strands, 0, strands, size, other.size);
+        for (int i = 0; i < other.size * Overlaps.NUM_COLUMNS; i++) {
+            overlapEnds[size * Overlaps.NUM_COLUMNS + i] = numOverlapIds
+                    + other.overlapEnds[i];
+        }
+        size += other.size;
+
+        ensureOverlapCapacity(numOverlapIds + other.numOverlapIds);
+        System.arraycopy(other.overlapIds, 0, overlapIds, numOverlapIds,
+                other.numOverlapIds);
+        numOverlapIds += other.numOverlapIds;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= starts.length) {
+            return;
+        }
+        int capacity = Math.max(minCapacity, size + (size >> 1) + 1);
+        referenceIds = Arrays.copyOf(referenceIds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        strands = Arrays.copyOf(strands, capacity);
+        overlapEnds = Arrays.copyOf(overlapEnds, capacity * Overlaps.NUM_COLUMNS);
+    }
+
+    private void ensureOverlapCapacity(int minCapacity) {
+        if (minCapacity > overlapIds.length) {
+            overlapIds = Arrays.copyOf(overlapIds, Math.max(minCapacity,
+                    numOverlapIds + (numOverlapIds >> 1) + 1));
+        }
+    }
+
+    /**
+     * Counts the name IDs of every position, adding the IDs of each
+     * output column to the counter for that column.
+     */
+    void count(IntCounter[] counts) {
+        int from = 0;
+        for (int i = 0; i < size * Overlaps.NUM_COLUMNS; i++) {
+            IntCounter columnCounts = counts[i % Overlaps.NUM_COLUMNS];
+            for (int to = overlapEnds[i]; from < to; from++) {
+                columnCounts.increment(overlapIds[from]);
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof PositionList)) {
+            return false;
+        }
+
+        PositionList o = (PositionList) other;
+        return size == o.size &&
+                numOverlapIds == o.numOverlapIds &&
+                rangeEquals(referenceIds, o.referenceIds, size) &&
+                rangeEquals(starts, o.starts, size) &&
+                rangeEquals(ends, o.ends, size) &&
+                rangeEquals(strands, o.strands, size) &&
+                rangeEquals(overlapEnds, o.overlapEnds, size * Overlaps.NUM_COLUMNS) &&
+                rangeEquals(overlapIds, o.overlapIds, numOverlapIds);
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = size;
+        for (int i = 0; i < size; i++) {
+            hashCode = 37 * hashCode + referenceIds[i];
+            hashCode = 37 * hashCode + starts[i];
+            hashCode = 37 * hashCode + ends[i];
+            hashCode = 37 * hashCode + strands[i];
+        }
+        for (int i = 0; i < numOverlapIds; i++) {
+            hashCode = 37 * hashCode + overlapIds[i];
+        }
+        return hashCode;
+    }
+
+    private static boolean rangeEquals(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
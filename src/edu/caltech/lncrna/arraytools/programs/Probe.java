@@ -0,0 +1,390 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import edu.caltech.lncrna.arraytools.datastructures.IntCounter;
+import edu.caltech.lncrna.arraytools.datastructures.NameDictionary;
+import edu.caltech.lncrna.arraytools.datastructures.TopCounter;
+import edu.caltech.lncrna.arraytools.io.TsvWriter;
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+import edu.caltech.lncrna.bio.sequence.Sequences;
+
+/**
+ * A class to represent a RAP probe.
+ */
+final class Probe {
+
+    private final ProbeContext context;
+    private String name;
+    private String seq;
+
+    /**
+     * The positions that this probe aligns to, or null in count-only
+     * mode or once this probe has been rejected.
+     */
+    private PositionList positions;
+
+    /**
+     * In count-only mode, the number of times each name has been hit,
+     * by output column, with a column's counter created when it is first
+     * needed. Null otherwise.
+     */
+    private final IntCounter[] nameCounts;
+
+    /**
+     * The number of alignments added so far, including those added after
+     * this probe was rejected.
+     */
+    private int hits;
+
+    /**
+     * With --reject, the number of names hit so far in each output
+     * column. Null otherwise.
+     */
+    private final int[] columnHits;
+
+    /**
+     * The output column whose reject threshold this probe exceeded, or
+     * -1 if it has not been rejected.
+     */
+    private int rejectedBy = -1;
+
+    /**
+     * With --top-names, the approximate counts of the most frequent
+     * names by output column, which replace {@link #nameCounts} once
+     * this probe has more alignments than --exact-hits. Null until then.
+     */
+    private TopCounter[] topCounts;
+
+    Probe(ProbeContext context) {
+        this.context = context;
+        positions = context.isCountOnly() ? null : new PositionList();
+        nameCounts = context.isCountOnly()
+                ? new IntCounter[Overlaps.NUM_COLUMNS]
+                : null;
+        columnHits = context.screensProbes()
+                ? new int[Overlaps.NUM_COLUMNS]
+                : null;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether this probe exceeded a reject threshold.
+     */
+    boolean isRejected() {
+        return rejectedBy >= 0;
+    }
+
+    /**
+     * Adds a position that has already been computed from the given
+     * alignment, or null if the alignment was not classified because
+     * this probe had already been rejected.
+     */
+    void addPosition(SingleReadAlignment a, Position position) {
+        check(a.getName(), a.getBases());
+        hits++;
+        if (rejectedBy >= 0) {
+            return;
+        }
+        if (position == null) {
+            Integer column = context.getRejectingColumn(name);
+            if (column != null) {
+                reject(column);
+                return;
+            }
+            // An earlier probe with this name was rejected, and written
+            // since this alignment was classified.
+            position = context.classify(a);
+        }
+        if (columnHits != null) {
+            for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+                columnHits[column] += position.getNameIds(column).length;
+            }
+            if (checkThresholds()) {
+                return;
+            }
+        }
+        if (positions != null) {
+            int referenceId = context.getReferenceNames()
+                    .intern(position.getReference());
+            positions.add(referenceId, position);
+            return;
+        }
+        if (topCounts == null && context.getTopNames() > 0
+                && hits > context.getExactHits()) {
+            keepTopNames();
+        }
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            int[] ids = position.getNameIds(column);
+            if (ids.length == 0) {
+                continue;
+            }
+            if (topCounts != null) {
+                TopCounter columnCounts = getTopCounts(column);
+                for (int id : ids) {
+                    columnCounts.increment(id);
+                }
+            } else {
+                IntCounter columnCounts = getCounts(column);
+                for (int id : ids) {
+                    columnCounts.increment(id);
+                }
+            }
+        }
+    }
+
+    private IntCounter getCounts(int column) {
+        if (nameCounts[column] == null) {
+            nameCounts[column] = new IntCounter();
+        }
+        return nameCounts[column];
+    }
+
+    private TopCounter getTopCounts(int column) {
+        if (topCounts[column] == null) {
+            topCounts[column] = new TopCounter(context.getTopNames());
+        }
+        return topCounts[column];
+    }
+
+    /**
+     * Moves the exact counts of this probe into approximate counts of
+     * its most frequent names.
+     */
+    private void keepTopNames() {
+        topCounts = new TopCounter[Overlaps.NUM_COLUMNS];
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            if (nameCounts[column] != null) {
+                getTopCounts(column).addAll(nameCounts[column]);
+                nameCounts[column] = null;
+            }
+        }
+    }
+
+    /**
+     * Rejects this probe if the names hit in any output column exceed
+     * the reject threshold of that column.
+     *
+     * @return whether this probe has been rejected
+     */
+    private boolean checkThresholds() {
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            int threshold = context.getRejectThreshold(column);
+            if (threshold >= 0 && columnHits[column] > threshold) {
+                context.markRejected(name, column);
+                reject(column);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks this probe as rejected by the given column, discarding what
+     * it has counted.
+     */
+    private void reject(int column) {
+        rejectedBy = column;
+        positions = null;
+        if (nameCounts != null) {
+            Arrays.fill(nameCounts, null);
+        }
+        topCounts = null;
+    }
+
+    /**
+     * Adds the positions of another probe with the same name, such as
+     * the alignments of this probe to another chromosome.
+     */
+    void addAll(Probe other) {
+        check(other.name, other.seq);
+        hits += other.hits;
+        if (rejectedBy >= 0) {
+            return;
+        }
+        if (other.rejectedBy >= 0) {
+            reject(other.rejectedBy);
+            return;
+        }
+        if (columnHits != null) {
+            for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+                columnHits[column] += other.columnHits[column];
+            }
+            if (checkThresholds()) {
+                return;
+            }
+        }
+        if (positions != null) {
+            positions.addAll(other.positions);
+            return;
+        }
+        if (topCounts == null && (other.topCounts != null
+                || context.getTopNames() > 0
+                        && hits > context.getExactHits())) {
+            keepTopNames();
+        }
+        for (int column = 0; column < Overlaps.NUM_COLUMNS; column++) {
+            if (other.topCounts != null && other.topCounts[column] != null) {
+                getTopCounts(column).addAll(other.topCounts[column]);
+            } else if (other.nameCounts[column] == null) {
+                continue;
+            } else if (topCounts != null) {
+                getTopCounts(column).addAll(other.nameCounts[column]);
+            } else {
+                getCounts(column).addAll(other.nameCounts[column]);
+            }
+        }
+    }
+
+    /**
+     * Checks that a read belongs to this probe, setting the name and
+     * sequence of this probe if it has no reads yet.
+     */
+    private void check(String readName, String bases) {
+        if (name == null) {
+            name = readName;
+        } else {
+            if (!name.equals(readName)) {
+                throw new IllegalArgumentException("Read name does not "
+                        + "match probe name: " + name + " != "
+                        + readName);
+            }
+        }
+
+        if (seq == null) {
+            seq = bases;
+        } else {
+            if (!(seq.equals(bases) ||
+                  seq.equals(Sequences.reverseComplement(bases)))) {
+                throw new IllegalArgumentException("Read sequence does "
+                        + "not match probe sequence: " + seq + " != "
+                        + bases);
+            }
+        }
+    }
+
+    /**
+     * Writes a row representing this probe, without a line terminator,
+     * suitable for printing into the output text file.
+     */
+    void writeTo(TsvWriter out) {
+
+        if (rejectedBy >= 0) {
+            out.write(name).tab()
+               .write(context.getColumnNames()[rejectedBy]).tab()
+               .write(hits).tab()
+               .write(seq);
+            return;
+        }
+
+        NameDictionary repeatNames = context.getRepeatNames();
+        NameDictionary geneNames = context.getGeneNames();
+        if (topCounts != null) {
+            out.write(name).tab();
+            writeCounts(out, topCounts[Overlaps.REPEATS], repeatNames);
+            out.tab();
+            writeCounts(out, topCounts[Overlaps.GENES_NO_REPEATS], geneNames);
+            out.tab();
+            writeCounts(out, topCounts[Overlaps.GENES_EXONS_WITH_REPEATS], geneNames);
+            out.tab();
+            writeCounts(out, topCounts[Overlaps.GENES_INTRONS_WITH_REPEATS], geneNames);
+            out.tab().write(seq);
+            return;
+        }
+
+        IntCounter[] counts = new IntCounter[Overlaps.NUM_COLUMNS];
+        for (int column = 0; column < counts.length; column++) {
+            counts[column] = nameCounts != null && nameCounts[column] != null
+                    ? nameCounts[column]
+                    : new IntCounter();
+        }
+        if (positions != null) {
+            positions.count(counts);
+        }
+
+        out.write(name).tab();
+        writeCounts(out, counts[Overlaps.REPEATS], repeatNames);
+        out.tab();
+        writeCounts(out, counts[Overlaps.GENES_NO_REPEATS], geneNames);
+        out.tab();
+        writeCounts(out, counts[Overlaps.GENES_EXONS_WITH_REPEATS], geneNames);
+        out.tab();
+        writeCounts(out, counts[Overlaps.GENES_INTRONS_WITH_REPEATS], geneNames);
+        out.tab().write(seq);
+    }
+
+    /**
+     * Writes name counts as <code>count:name;</code> entries, or a
+     * single <code>.</code> if there are none.
+     */
+    private void writeCounts(TsvWriter out, IntCounter counts, NameDictionary names) {
+        if (counts.isEmpty()) {
+            out.write('.');
+            return;
+        }
+        for (int i = 0; i < counts.size(); i++) {
+            out.write(counts.getCount(i)).write(':')
+               .write(names.get(counts.getKey(i))).write(';');
+        }
+    }
+
+    /**
+     * Writes approximate name counts in descending order of count, as
+     * <code>count:name;</code> entries for counts known to be exact and
+     * <code>count~error:name;</code> entries for counts that may exceed
+     * the true count by up to <code>error</code>, or a single
+     * <code>.</code> if there are none.
+     */
+    private void writeCounts(TsvWriter out, TopCounter counts, NameDictionary names) {
+        if (counts == null || counts.isEmpty()) {
+            out.write('.');
+            return;
+        }
+        for (int i = 0; i < counts.size(); i++) {
+            out.write(counts.getCount(i));
+            if (counts.getError(i) > 0) {
+                out.write('~').write(counts.getError(i));
+            }
+            out.write(':').write(names.get(counts.getKey(i))).write(';');
+        }
+    }
+
+    /**
+     * A string representation of this probe suitable for printing into the
+     * output text file.
+     */
+    @Override
+    public String toString() {
+        TsvWriter out = new TsvWriter();
+        writeTo(out);
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof Probe)) {
+            return false;
+        }
+
+        Probe o = (Probe) other;
+        return rejectedBy == o.rejectedBy
+                && Objects.equals(positions, o.positions)
+                && Arrays.equals(nameCounts, o.nameCounts)
+                && Arrays.equals(topCounts, o.topCounts);
+    }
+
+    @Override
+    public int hashCode() {
+        return positions != null
+                ? positions.hashCode()
+                : 31 * Arrays.hashCode(nameCounts) + Arrays.hashCode(topCounts);
+    }
+}
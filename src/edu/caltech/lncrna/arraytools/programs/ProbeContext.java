@@ -0,0 +1,163 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import edu.caltech.lncrna.arraytools.datastructures.NameDictionary;
+import edu.caltech.lncrna.bio.alignment.Alignment;
+
+/**
+ * The settings and shared state consulted by every {@link Probe} of a run:
+ * how probes count their hits, the reject thresholds, and the dictionaries
+ * that map name IDs back to names.
+ */
+final class ProbeContext {
+
+    private final boolean countOnly;
+
+    /**
+     * The number of names kept per column for a probe with more than
+     * {@link #exactHits} alignments, or 0 to count every name exactly.
+     */
+    private final int topNames;
+    private final int exactHits;
+
+    /**
+     * With --reject, the number of names hit in each output column above
+     * which a probe is rejected, or -1 for no limit. Null otherwise.
+     */
+    private final int[] rejectThresholds;
+
+    /**
+     * The output column that rejected each rejected probe that has not yet
+     * been written, so that its remaining alignments can skip the overlap
+     * queries. Entries are removed as their probes are written, so that
+     * streamed probes take no memory once written.
+     */
+    private final Map<String, Integer> rejectedNames = new ConcurrentHashMap<>();
+
+    private final String[] columnNames;
+    private final NameDictionary referenceNames = new NameDictionary();
+    private NameDictionary repeatNames;
+    private NameDictionary geneNames;
+
+    /**
+     * Computes the position of an alignment whose overlaps have not been
+     * queried.
+     */
+    private final Function<Alignment, Position> classifier;
+
+    /**
+     * @param rejectThresholds the reject threshold of each output column, or
+     * -1 for none, or null if probes are not screened
+     * @param classifier computes the position of an alignment
+     */
+    ProbeContext(boolean countOnly, int topNames, int exactHits,
+            int[] rejectThresholds, boolean hitPlacement,
+            Function<Alignment, Position> classifier) {
+        this.countOnly = countOnly;
+        this.topNames = topNames;
+        this.exactHits = exactHits;
+        this.rejectThresholds = rejectThresholds;
+        this.columnNames = Overlaps.columnNames(hitPlacement);
+        this.classifier = classifier;
+    }
+
+    /**
+     * Returns whether probes keep per-name counts instead of positions.
+     */
+    boolean isCountOnly() {
+        return countOnly;
+    }
+
+    int getTopNames() {
+        return topNames;
+    }
+
+    int getExactHits() {
+        return exactHits;
+    }
+
+    /**
+     * Returns whether probes are screened by reject thresholds.
+     */
+    boolean screensProbes() {
+        return rejectThresholds != null;
+    }
+
+    /**
+     * Returns the reject threshold of an output column, or -1 for none.
+     */
+    int getRejectThreshold(int column) {
+        return rejectThresholds[column];
+    }
+
+    /**
+     * Returns whether a probe with the given name has been rejected and not
+     * yet written.
+     */
+    boolean isRejected(String name) {
+        return rejectThresholds != null && rejectedNames.containsKey(name);
+    }
+
+    /**
+     * Returns the output column that rejected the probe with the given name,
+     * or null if it has not been rejected or has since been written.
+     */
+    Integer getRejectingColumn(String name) {
+        return rejectedNames.get(name);
+    }
+
+    /**
+     * Records that the probe with the given name was rejected by an output
+     * column, unless it was already.
+     */
+    void markRejected(String name, int column) {
+        rejectedNames.putIfAbsent(name, column);
+    }
+
+    /**
+     * Forgets that the probe with the given name was rejected, once it has
+     * been written.
+     */
+    void forgetRejected(String name) {
+        rejectedNames.remove(name);
+    }
+
+    /**
+     * Returns the names of the output columns that count overlapping
+     * annotations.
+     */
+    String[] getColumnNames() {
+        return columnNames;
+    }
+
+    NameDictionary getReferenceNames() {
+        return referenceNames;
+    }
+
+    NameDictionary getRepeatNames() {
+        return repeatNames;
+    }
+
+    NameDictionary getGeneNames() {
+        return geneNames;
+    }
+
+    /**
+     * Sets the dictionaries of the repeat and gene names that the name IDs
+     * of positions refer to.
+     */
+    void setAnnotationNames(NameDictionary repeatNames, NameDictionary geneNames) {
+        this.repeatNames = repeatNames;
+        this.geneNames = geneNames;
+    }
+
+    /**
+     * Computes the position of an alignment.
+     */
+    Position classify(Alignment a) {
+        return classifier.apply(a);
+    }
+}
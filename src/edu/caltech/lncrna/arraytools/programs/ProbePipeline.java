@@ -0,0 +1,284 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import edu.caltech.lncrna.arraytools.io.ParallelBamReader;
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+import edu.caltech.lncrna.bio.io.SingleReadBamParser;
+
+/**
+ * Runs the alignments of a probe BAM file through a three-stage pipeline.
+ * A reader thread decodes the BAM file into batches, a classifier thread
+ * computes the position of every alignment in each batch, and the calling
+ * thread passes each classified batch to a consumer in file order.
+ * <p>
+ * Adjacent stages are connected by bounded queues, so a slow stage makes
+ * the stages before it wait rather than buffer without limit. Queue depths
+ * are logged periodically, and the throughput of each stage is logged
+ * when the pipeline finishes. If a stage fails, the other stages are
+ * stopped and its exception is rethrown.
+ * <p>
+ * Each stage handles one batch at a time, so at most three batches are
+ * being worked on at once, one per stage. The pipeline overlaps decoding,
+ * classification and output with each other, but it does not classify
+ * two batches at the same time. Classification is spread across the
+ * worker pool within a batch instead, by the classifier itself.
+ */
+final class ProbePipeline {
+
+    private final Path probesPath;
+    private final int bgzfThreads;
+    private final Predicate<SingleReadAlignment> filter;
+
+    /**
+     * The number of alignments read before they are classified together.
+     */
+    private static final int ALIGNMENT_BATCH_SIZE = 8192;
+
+    /**
+     * The number of batches that may wait between two pipeline stages.
+     */
+    private static final int QUEUE_CAPACITY = 4;
+
+    /**
+     * The minimum time between progress messages, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    private static final Logger LOGGER = Logger.getLogger("ProbePipeline");
+
+    /**
+     * @param bgzfThreads the number of threads that inflate BGZF blocks, or
+     * 0 to inflate them on the reader thread
+     * @param filter selects the alignments to pass through the pipeline
+     */
+    ProbePipeline(Path probesPath, int bgzfThreads,
+            Predicate<SingleReadAlignment> filter) {
+        this.probesPath = probesPath;
+        this.bgzfThreads = bgzfThreads;
+        this.filter = filter;
+    }
+
+    /**
+     * Passes the alignments through the pipeline, returning once the
+     * consumer has received the last batch.
+     *
+     * @param classifier computes the positions of a batch of alignments, in
+     * order
+     * @param consumer receives each batch of alignments together with their
+     * positions
+     */
+    void run(Function<List<SingleReadAlignment>, Position[]> classifier,
+            BiConsumer<List<SingleReadAlignment>, Position[]> consumer) {
+        BlockingQueue<Batch> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Batch> classified = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Stage reader = new Stage("decode");
+        Stage classifying = new Stage("classify");
+        Stage writer = new Stage("consume");
+
+        Thread readerThread = startStage("probe-reader", decoded, failure, () -> {
+            if (bgzfThreads > 0) {
+                try (ParallelBamReader bp = new ParallelBamReader(probesPath, bgzfThreads)) {
+                    readBatches(bp.getAlignmentIterator(), reader, decoded);
+                }
+            } else {
+                try (SingleReadBamParser bp = new SingleReadBamParser(probesPath)) {
+                    readBatches(bp.getAlignmentIterator(), reader, decoded);
+                }
+            }
+            reader.finish();
+        });
+
+        Thread classifierThread = startStage("probe-classifier", classified, failure, () -> {
+            for (Batch batch = classifying.take(decoded); batch != Batch.END;
+                    batch = classifying.take(decoded)) {
+                batch.positions = classifier.apply(batch.alignments);
+                classifying.put(classified, batch);
+            }
+            classifying.finish();
+        });
+
+        long lastProgress = System.currentTimeMillis();
+        try {
+            for (Batch batch = writer.take(classified); batch != Batch.END;
+                    batch = writer.take(classified)) {
+                consumer.accept(batch.alignments, batch.positions);
+                writer.count(batch.alignments.size());
+                if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = System.currentTimeMillis();
+                    LOGGER.info("Processed " + writer.items + " alignments. "
+                            + "Queued batches: decoded " + decoded.size() + "/"
+                            + QUEUE_CAPACITY + ", classified " + classified.size()
+                            + "/" + QUEUE_CAPACITY + ".");
+                }
+            }
+            writer.finish();
+            if (failure.get() != null) {
+                // A failed stage ends the stages after it, but the stages
+                // before it may be blocked on a full queue that nothing
+                // will drain.
+                readerThread.interrupt();
+                classifierThread.interrupt();
+            }
+            readerThread.join();
+            classifierThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing probes", e);
+        } finally {
+            readerThread.interrupt();
+            classifierThread.interrupt();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+
+        reader.log();
+        classifying.log();
+        writer.log();
+    }
+
+    /**
+     * Splits the alignments that pass the filter into batches and puts them
+     * on a queue.
+     */
+    private void readBatches(Iterator<SingleReadAlignment> alignments,
+            Stage reader, BlockingQueue<Batch> out) throws InterruptedException {
+        List<SingleReadAlignment> batch = new ArrayList<>(ALIGNMENT_BATCH_SIZE);
+        while (alignments.hasNext()) {
+            SingleReadAlignment a = alignments.next();
+            if (!filter.test(a)) {
+                continue;
+            }
+            batch.add(a);
+            if (batch.size() == ALIGNMENT_BATCH_SIZE) {
+                reader.put(out, new Batch(batch));
+                batch = new ArrayList<>(ALIGNMENT_BATCH_SIZE);
+            }
+        }
+        if (!batch.isEmpty()) {
+            reader.put(out, new Batch(batch));
+        }
+    }
+
+    /**
+     * Starts a pipeline stage on a new daemon thread. When the stage ends,
+     * normally or not, it places {@link Batch#END} on its output queue so
+     * that the next stage also ends.
+     */
+    private static Thread startStage(String name, BlockingQueue<Batch> out,
+            AtomicReference<Throwable> failure, StageBody body) {
+        Thread rtrn = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                try {
+                    out.put(Batch.END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, name);
+        rtrn.setDaemon(true);
+        rtrn.start();
+        return rtrn;
+    }
+
+    /**
+     * A batch of alignments passed between pipeline stages, together with
+     * their positions once they have been classified.
+     */
+    private static final class Batch {
+
+        /**
+         * Marks the end of a stage's output.
+         */
+        private static final Batch END = new Batch(Collections.emptyList());
+
+        private final List<SingleReadAlignment> alignments;
+        private Position[] positions;
+
+        private Batch(List<SingleReadAlignment> alignments) {
+            this.alignments = alignments;
+        }
+    }
+
+    /**
+     * The work done by a pipeline stage.
+     */
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * Timing statistics for one pipeline stage. Time spent blocked on a queue
+     * is counted separately from time spent working, so the stage with the
+     * lowest throughput while working is the bottleneck.
+     */
+    private static final class Stage {
+
+        private final String name;
+        private final long start;
+        private long end;
+        private long waitNanos;
+        private long items;
+
+        private Stage(String name) {
+            this.name = name;
+            this.start = System.nanoTime();
+        }
+
+        private Batch take(BlockingQueue<Batch> queue) throws InterruptedException {
+            long t = System.nanoTime();
+            Batch rtrn = queue.take();
+            waitNanos += System.nanoTime() - t;
+            return rtrn;
+        }
+
+        private void put(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+            items += batch.alignments.size();
+            long t = System.nanoTime();
+            queue.put(batch);
+            waitNanos += System.nanoTime() - t;
+        }
+
+        private void count(int n) {
+            items += n;
+        }
+
+        private void finish() {
+            end = System.nanoTime();
+        }
+
+        private void log() {
+            long busyMillis = Math.max(1, (end - start - waitNanos) / 1000000);
+            LOGGER.info("Stage " + name + ": " + items + " alignments in "
+                    + busyMillis + " ms working (" + (items * 1000 / busyMillis)
+                    + " alignments/s), " + (waitNanos / 1000000)
+                    + " ms waiting on queues.");
+        }
+    }
+}
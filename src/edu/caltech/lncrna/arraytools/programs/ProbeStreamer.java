@@ -0,0 +1,79 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+
+/**
+ * Groups classified alignments from a name-grouped BAM file into probes,
+ * passing finished probes to a printer in batches. A probe is finished once
+ * an alignment with another name follows it, so only one probe is being
+ * built at a time.
+ */
+final class ProbeStreamer implements BiConsumer<List<SingleReadAlignment>, Position[]> {
+
+    private final ProbeContext context;
+    private final int batchSize;
+    private final Consumer<List<Probe>> printer;
+    private final List<Probe> finished;
+    private Probe probe = null;
+    private long count = 0;
+
+    /**
+     * @param batchSize the number of finished probes passed to the printer
+     * together
+     * @param printer prints a batch of probes in order, after which the
+     * batch is reused
+     */
+    ProbeStreamer(ProbeContext context, int batchSize, Consumer<List<Probe>> printer) {
+        this.context = context;
+        this.batchSize = batchSize;
+        this.printer = printer;
+        finished = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void accept(List<SingleReadAlignment> alignments, Position[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            SingleReadAlignment a = alignments.get(i);
+            if (probe != null && !probe.getName().equals(a.getName())) {
+                finished.add(probe);
+                probe = null;
+            }
+            if (probe == null) {
+                probe = new Probe(context);
+            }
+            probe.addPosition(a, positions[i]);
+        }
+        if (finished.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Prints the last probe and any others not yet printed.
+     */
+    void finish() {
+        if (probe != null) {
+            finished.add(probe);
+            probe = null;
+        }
+        flush();
+    }
+
+    /**
+     * Returns the number of probes printed so far.
+     */
+    long getCount() {
+        return count;
+    }
+
+    private void flush() {
+        printer.accept(finished);
+        count += finished.size();
+        finished.clear();
+    }
+}
@@ -0,0 +1,165 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.logging.Logger;
+
+import edu.caltech.lncrna.arraytools.datastructures.AnnotationSweep;
+import edu.caltech.lncrna.arraytools.datastructures.BlockPlacement;
+import edu.caltech.lncrna.arraytools.datastructures.IntArrayList;
+import edu.caltech.lncrna.arraytools.datastructures.NameDictionary;
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+import edu.caltech.lncrna.bio.annotation.BedFileRecord;
+import edu.caltech.lncrna.bio.io.BedParser;
+
+/**
+ * Classifies the alignments of a coordinate-sorted BAM file by sweeping
+ * through the repeat and gene BED files alongside them instead of indexing
+ * them. Only the annotations overlapping the current alignment are held in
+ * memory, so the BED files may be larger than the heap.
+ * <p>
+ * The BED files must be sorted by reference and start position, with
+ * references in the order of the BAM header. Annotations on references
+ * missing from the header are skipped. Unless alignments are placed
+ * within genes, the genes are first classified by a separate sweep
+ * against the repeats, keeping one tag per gene.
+ * <p>
+ * Batches must be classified in file order, one at a time. This class
+ * holds the BED files open until it is closed.
+ */
+final class ProbeSweep implements AutoCloseable {
+
+    private final ProbeContext context;
+    private final boolean hitPlacement;
+    private final NameDictionary repeatNames = new NameDictionary();
+    private final NameDictionary geneNames = new NameDictionary();
+
+    /**
+     * The class of each gene, in file order, unless alignments are placed
+     * within genes.
+     */
+    private final IntArrayList geneTags = new IntArrayList();
+
+    private final BedParser repeatParser;
+    private final BedParser geneParser;
+    private final AnnotationSweep<BedFileRecord> repeatSweep;
+    private final AnnotationSweep<BedFileRecord> geneSweep;
+
+    private static final Logger LOGGER = Logger.getLogger("ProbeSweep");
+
+    /**
+     * @param ranks returns the index of a reference in the BAM header, or
+     * -1 if it is missing
+     * @param context decides which probes have been rejected
+     */
+    ProbeSweep(Path repeatsPath, Path genesPath, ToIntFunction<String> ranks,
+            boolean hitPlacement, ProbeContext context) {
+        this.context = context;
+        this.hitPlacement = hitPlacement;
+        if (!hitPlacement) {
+            classifyGenes(repeatsPath, genesPath, ranks);
+        }
+        repeatParser = new BedParser(repeatsPath);
+        try {
+            geneParser = new BedParser(genesPath);
+        } catch (RuntimeException e) {
+            repeatParser.close();
+            throw e;
+        }
+        repeatSweep = new AnnotationSweep<>(repeatParser, ranks, repeatsPath.toString());
+        geneSweep = new AnnotationSweep<>(geneParser, ranks, genesPath.toString());
+    }
+
+    /**
+     * Classifies each gene by a sweep against the repeats, adding its class
+     * to the gene tags in file order.
+     */
+    private void classifyGenes(Path repeatsPath, Path genesPath,
+            ToIntFunction<String> ranks) {
+        LOGGER.info("Classifying genes by sweeping repeats.");
+        long classifyStart = System.currentTimeMillis();
+        try (BedParser rp = new BedParser(repeatsPath);
+             BedParser gp = new BedParser(genesPath)) {
+            AnnotationSweep<BedFileRecord> repeatSweep =
+                    new AnnotationSweep<>(rp, ranks, repeatsPath.toString());
+            while (gp.hasNext()) {
+                geneTags.add(GeneClass.of(repeatSweep::overlaps, gp.next()).ordinal());
+            }
+            LOGGER.info("Classified " + geneTags.size() + " genes in "
+                    + (System.currentTimeMillis() - classifyStart)
+                    + " milliseconds, holding at most "
+                    + repeatSweep.getMaxWindowSize() + " repeats at once.");
+        }
+    }
+
+    /**
+     * Computes the position of each alignment in a batch that follows the
+     * batches classified so far, or null for an alignment whose probe has
+     * been rejected.
+     *
+     * @return the positions, in the same order as the alignments
+     */
+    Position[] classify(List<SingleReadAlignment> batch) {
+        Position[] rtrn = new Position[batch.size()];
+        for (int i = 0; i < rtrn.length; i++) {
+            SingleReadAlignment a = batch.get(i);
+            if (context.isRejected(a.getName())) {
+                continue;
+            }
+            Overlaps overlaps = new Overlaps();
+            repeatSweep.forEachBodyOverlapper(a, (r, id) ->
+                    overlaps.addRepeat(repeatNames.intern(r.getName())));
+            if (hitPlacement) {
+                geneSweep.forEachBodyOverlapper(a, (g, id) -> {
+                    int[] boundaries = g.getBlockBoundaries();
+                    overlaps.addGene(geneNames.intern(g.getName()),
+                            BlockPlacement.of(boundaries, 0,
+                                    boundaries.length, a.getStart(),
+                                    a.getEnd()));
+                });
+            } else {
+                geneSweep.forEachBodyOverlapper(a, (g, id) ->
+                        overlaps.addGene(geneNames.intern(g.getName()),
+                                GeneClass.fromOrdinal(geneTags.get(id))));
+            }
+            rtrn[i] = new Position(a, overlaps.toNameIds());
+        }
+        return rtrn;
+    }
+
+    /**
+     * Returns the dictionary of the repeat names that positions refer to,
+     * which grows as alignments are classified.
+     */
+    NameDictionary getRepeatNames() {
+        return repeatNames;
+    }
+
+    /**
+     * Returns the dictionary of the gene names that positions refer to,
+     * which grows as alignments are classified.
+     */
+    NameDictionary getGeneNames() {
+        return geneNames;
+    }
+
+    /**
+     * Logs how many annotations have been swept and the most held at once.
+     */
+    void logWindowSizes() {
+        LOGGER.info("Swept " + repeatSweep.getNumRead() + " repeats and "
+                + geneSweep.getNumRead() + " genes, holding at most "
+                + repeatSweep.getMaxWindowSize() + " repeats and "
+                + geneSweep.getMaxWindowSize() + " genes at once.");
+    }
+
+    @Override
+    public void close() {
+        try {
+            repeatParser.close();
+        } finally {
+            geneParser.close();
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package edu.caltech.lncrna.arraytools.programs;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,15 +25,27 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.GroupOrder;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+import edu.caltech.lncrna.arraytools.datastructures.AnnotationIndex;
+import edu.caltech.lncrna.arraytools.datastructures.AnnotationTrack;
+import edu.caltech.lncrna.arraytools.datastructures.Coverage;
+import edu.caltech.lncrna.arraytools.datastructures.LruCache;
+import edu.caltech.lncrna.arraytools.datastructures.NameCounter;
+import edu.caltech.lncrna.arraytools.datastructures.NameTable;
+import edu.caltech.lncrna.arraytools.datastructures.NamedAnnotation;
+import edu.caltech.lncrna.arraytools.datastructures.Tasks;
+import edu.caltech.lncrna.arraytools.io.AnnotationIndexFile;
+import edu.caltech.lncrna.arraytools.io.BedFileLoader;
+import edu.caltech.lncrna.arraytools.io.ParallelBamReader;
+import edu.caltech.lncrna.arraytools.io.TsvWriter;
 import edu.caltech.lncrna.bio.alignment.Alignment;
 import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
-import edu.caltech.lncrna.bio.annotation.Annotated;
-import edu.caltech.lncrna.bio.annotation.Annotation;
-import edu.caltech.lncrna.bio.annotation.BedFileRecord;
-import edu.caltech.lncrna.bio.datastructures.GenomeTree;
-import edu.caltech.lncrna.bio.io.BedParser;
 import edu.caltech.lncrna.bio.io.SingleReadBamParser;
-import edu.caltech.lncrna.bio.sequence.Sequences;
 
 /**
  * This program was originally written to assist Joanna with designing RAP probes
@@ -40,11 +59,67 @@ public class TransposonProbeAnalyzer {
     private final Path repeatsPath;
     private final Path genesPath;
     private final Path probesPath;
+    private final Path indexPath;
+    private final boolean rebuildIndex;
+    
+    private AnnotationTrack genes;
+    private AnnotationTrack repeats;
+    private final ProbeContext context;
+    private final NameTable<Probe> probes;
+    private final int threads;
+    private final int bgzfThreads;
+    private final boolean hitPlacement;
+    private final Coverage.Representation repeatCoverageRepresentation;
+    private final ForkJoinPool pool;
+    private final TsvWriter output;
+    
+    /**
+     * Where rejected probes are written, or null to omit them.
+     */
+    private final TsvWriter rejectedOutput;
+    private long numRejected;
+    
+    /**
+     * The range of alignment counts of the probes to classify, with
+     * --min-alignments or --max-alignments.
+     */
+    private final int minAlignments;
+    private final int maxAlignments;
+    
+    /**
+     * The number of alignments of each probe, counted in a first pass over
+     * the probes, or null if probes are not filtered by their number of
+     * alignments.
+     */
+    private NameCounter multiplicities;
+    
+    /**
+     * The name IDs of the annotations overlapping recently classified loci,
+     * or null if caching is disabled.
+     */
+    private final LruCache<Locus, int[][]> locusCache;
+    
+    /**
+     * Buffers in which worker threads format probes before they are written
+     * to the output in order.
+     */
+    private final TsvWriter[] formatBuffers;
+    
+    /**
+     * The number of probes formatted together before they are printed.
+     */
+    private static final int PROBE_BATCH_SIZE = 1024;
     
-    private final GenomeTree<BedFileRecord> genes;
-    private final GenomeTree<Annotated> introns;
-    private final GenomeTree<BedFileRecord> repeats;
-    private final Map<String, Probe> probes;
+    /**
+     * The default number of loci whose overlaps are cached.
+     */
+    private static final int DEFAULT_LOCUS_CACHE_SIZE = 65536;
+    
+    /**
+     * The default number of alignments up to which a probe's names are
+     * counted exactly when only the top names are kept.
+     */
+    private static final int DEFAULT_EXACT_HITS = 10000;
     
     private static final String VERSION = "1.1.0";
     private static final Logger LOGGER = Logger.getLogger("TransposonProbeAnalyzer");
@@ -57,24 +132,106 @@ public class TransposonProbeAnalyzer {
         long startTime = System.currentTimeMillis();
         CommandLine cmd = parseArgs(args);
         TransposonProbeAnalyzer program = new TransposonProbeAnalyzer(cmd);
-        program.loadRepeats();
-        program.loadGenes();
-        program.loadProbes();
-        program.print();
+        if (cmd.hasOption("sweep")) {
+            if (!program.probesAreSortedByCoordinate()) {
+                LOGGER.severe("--sweep requires a probe BAM file sorted by "
+                        + "coordinate");
+                System.exit(1);
+            }
+            program.countAlignments();
+            program.sweepProbes();
+            program.print();
+            program.closeOutput();
+            LOGGER.info("Program complete");
+            LOGGER.info((System.currentTimeMillis() - startTime) + " milliseconds elapsed.");
+            return;
+        }
+        program.loadAnnotations();
+        if (cmd.hasOption("build-index")) {
+            LOGGER.info("Annotation index built.");
+            return;
+        }
+        program.countAlignments();
+        if (cmd.hasOption("by-chromosome")) {
+            if (!program.probesAreSortedByCoordinate() || !program.probesAreIndexed()) {
+                LOGGER.severe("--by-chromosome requires a probe BAM file sorted "
+                        + "by coordinate with a BAM index");
+                System.exit(1);
+            }
+            program.loadProbesByChromosome();
+            program.print();
+        } else if (program.probesAreGroupedByName()) {
+            program.streamProbes();
+        } else {
+            program.loadProbes();
+            program.print();
+        }
+        program.closeOutput();
         LOGGER.info("Program complete");
         LOGGER.info((System.currentTimeMillis() - startTime) + " milliseconds elapsed.");
     }
     
     public TransposonProbeAnalyzer(CommandLine cmd) {
         
-        genes = new GenomeTree<>();
-        introns = new GenomeTree<>();
-        repeats = new GenomeTree<>();
-        probes = new HashMap<>();
-        
         repeatsPath = Paths.get(cmd.getOptionValue("repeats"));
         genesPath = Paths.get(cmd.getOptionValue("genes"));
-        probesPath = Paths.get(cmd.getOptionValue("probes"));
+        probesPath = cmd.hasOption("probes")
+                ? Paths.get(cmd.getOptionValue("probes"))
+                : null;
+        indexPath = cmd.hasOption("index")
+                ? Paths.get(cmd.getOptionValue("index"))
+                : null;
+        rebuildIndex = cmd.hasOption("build-index");
+        hitPlacement = cmd.hasOption("hit-placement");
+        int topNames = cmd.hasOption("top-names")
+                ? Integer.parseInt(cmd.getOptionValue("top-names"))
+                : 0;
+        int exactHits = cmd.hasOption("exact-hits")
+                ? Integer.parseInt(cmd.getOptionValue("exact-hits"))
+                : DEFAULT_EXACT_HITS;
+        int[] rejectThresholds = cmd.hasOption("reject")
+                ? parseRejectThresholds(cmd.getOptionValue("reject"), hitPlacement)
+                : null;
+        context = new ProbeContext(cmd.hasOption("count-only") || topNames > 0,
+                topNames, exactHits, rejectThresholds, hitPlacement, this::position);
+        probes = new NameTable<>(() -> new Probe(context));
+        repeatCoverageRepresentation = "bitmap".equals(cmd.getOptionValue("repeat-coverage"))
+                ? Coverage.Representation.BITMAP
+                : Coverage.Representation.MERGED_INTERVALS;
+        
+        threads = cmd.hasOption("threads")
+                ? Integer.parseInt(cmd.getOptionValue("threads"))
+                : 1;
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        bgzfThreads = cmd.hasOption("bgzf-threads")
+                ? Integer.parseInt(cmd.getOptionValue("bgzf-threads"))
+                : 0;
+        formatBuffers = new TsvWriter[pool == null ? 0 : 4 * threads];
+        for (int i = 0; i < formatBuffers.length; i++) {
+            formatBuffers[i] = new TsvWriter();
+        }
+        
+        int locusCacheSize = cmd.hasOption("locus-cache")
+                ? Integer.parseInt(cmd.getOptionValue("locus-cache"))
+                : DEFAULT_LOCUS_CACHE_SIZE;
+        locusCache = locusCacheSize > 0
+                ? new LruCache<>(locusCacheSize, 4 * threads)
+                : null;
+        
+        output = cmd.hasOption("output")
+                ? TsvWriter.open(Paths.get(cmd.getOptionValue("output")))
+                : TsvWriter.toStandardOutput();
+        
+        rejectedOutput = cmd.hasOption("rejected")
+                ? TsvWriter.open(Paths.get(cmd.getOptionValue("rejected")))
+                : null;
+        
+        minAlignments = cmd.hasOption("min-alignments")
+                ? Integer.parseInt(cmd.getOptionValue("min-alignments"))
+                : 0;
+        maxAlignments = cmd.hasOption("max-alignments")
+                ? Integer.parseInt(cmd.getOptionValue("max-alignments"))
+                : Integer.MAX_VALUE;
         
         if (cmd.hasOption("debug")) {
             LOGGER.setLevel(Level.FINEST);
@@ -83,7 +240,42 @@ public class TransposonProbeAnalyzer {
 
     }
     
-    private static CommandLine parseArgs(String[] args) {
+    /**
+     * Parses reject thresholds given as comma-separated
+     * <code>COLUMN=N</code> pairs, where <code>COLUMN</code> is the header of
+     * an output column.
+     *
+     * @return the threshold of each output column, or -1 for none
+     * @throws IllegalArgumentException if a pair is malformed or names an
+     * unknown column
+     */
+    private static int[] parseRejectThresholds(String spec, boolean hitPlacement) {
+        List<String> columns = Arrays.asList(Overlaps.columnNames(hitPlacement));
+        int[] rtrn = new int[Overlaps.NUM_COLUMNS];
+        Arrays.fill(rtrn, -1);
+        for (String pair : spec.split(",")) {
+            int eq = pair.indexOf('=');
+            int column = eq < 0 ? -1 : columns.indexOf(pair.substring(0, eq).trim());
+            if (column < 0) {
+                throw new IllegalArgumentException("Expected COLUMN=N with "
+                        + "COLUMN one of " + columns + ": " + pair);
+            }
+            int threshold;
+            try {
+                threshold = Integer.parseInt(pair.substring(eq + 1).trim());
+            } catch (NumberFormatException e) {
+                threshold = -1;
+            }
+            if (threshold < 0) {
+                throw new IllegalArgumentException("Reject threshold must be "
+                        + "a non-negative integer: " + pair);
+            }
+            rtrn[column] = threshold;
+        }
+        return rtrn;
+    }
+    
+    static CommandLine parseArgs(String[] args) {
         
         Option versionOption = Option.builder("v")
                 .longOpt("version")
@@ -124,7 +316,158 @@ public class TransposonProbeAnalyzer {
                 .longOpt("probes")
                 .desc("the BAM file of probe alignments")
                 .hasArg(true)
-                .required(true)
+                .required(false)
+                .build();
+        
+        Option outputOption = Option.builder()
+                .longOpt("output")
+                .desc("the output file (default: standard output)")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option indexOption = Option.builder()
+                .longOpt("index")
+                .desc("a binary index of the repeats and genes; built from "
+                        + "the BED files if missing or out of date")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option threadsOption = Option.builder()
+                .longOpt("threads")
+                .desc("the number of threads used to classify and format "
+                        + "probes (default: 1)")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option sweepOption = Option.builder()
+                .longOpt("sweep")
+                .desc("classify a coordinate-sorted probe BAM file in one "
+                        + "pass over BED files sorted in the same reference "
+                        + "order, holding only overlapping annotations in "
+                        + "memory")
+                .hasArg(false)
+                .required(false)
+                .build();
+        
+        Option bgzfThreadsOption = Option.builder()
+                .longOpt("bgzf-threads")
+                .desc("the number of threads used to decompress the probe "
+                        + "BAM file, or 0 to decompress it while decoding "
+                        + "(default: 0)")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option locusCacheOption = Option.builder()
+                .longOpt("locus-cache")
+                .desc("the number of alignment loci whose overlapping "
+                        + "annotations are cached, or 0 to disable the cache "
+                        + "(default: " + DEFAULT_LOCUS_CACHE_SIZE + ")")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option byChromosomeOption = Option.builder()
+                .longOpt("by-chromosome")
+                .desc("read an indexed, coordinate-sorted probe BAM file one "
+                        + "chromosome per thread")
+                .hasArg(false)
+                .required(false)
+                .build();
+        
+        Option hitPlacementOption = Option.builder()
+                .longOpt("hit-placement")
+                .desc("report each gene by whether a probe lands in its "
+                        + "exons, in its introns, or across an exon boundary, "
+                        + "rather than by whether repeats overlap its exons")
+                .hasArg(false)
+                .required(false)
+                .build();
+        
+        Option countOnlyOption = Option.builder()
+                .longOpt("count-only")
+                .desc("keep only the per-name counts of each probe rather "
+                        + "than every alignment, so memory grows with the "
+                        + "names a probe hits rather than its alignments")
+                .hasArg(false)
+                .required(false)
+                .build();
+        
+        Option topNamesOption = Option.builder()
+                .longOpt("top-names")
+                .desc("for probes with more alignments than --exact-hits, "
+                        + "keep only about this many of the most frequent "
+                        + "names per column, with approximate counts written "
+                        + "as count~error:name; implies --count-only")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option exactHitsOption = Option.builder()
+                .longOpt("exact-hits")
+                .desc("the number of alignments up to which the names of a "
+                        + "probe are counted exactly with --top-names "
+                        + "(default: " + DEFAULT_EXACT_HITS + ")")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option repeatCoverageOption = Option.builder()
+                .longOpt("repeat-coverage")
+                .desc("how the bases covered by repeats are stored to "
+                        + "classify genes: \"merged\" for merged intervals or "
+                        + "\"bitmap\" for one bit per base (default: merged)")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option rejectOption = Option.builder()
+                .longOpt("reject")
+                .desc("screen probes against comma-separated COLUMN=N "
+                        + "thresholds, such as GENES_NO_REPEATS=5, rejecting a "
+                        + "probe once more than N names are hit in COLUMN; "
+                        + "the remaining alignments of a rejected probe are "
+                        + "not classified, and rejected probes are left out "
+                        + "of the output")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option rejectedOption = Option.builder()
+                .longOpt("rejected")
+                .desc("with --reject, write the rejected probes to this file, "
+                        + "with the column that rejected each")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option minAlignmentsOption = Option.builder()
+                .longOpt("min-alignments")
+                .desc("count the alignments of each probe in a first pass "
+                        + "over the probe BAM file, and classify only the "
+                        + "probes with at least this many")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option maxAlignmentsOption = Option.builder()
+                .longOpt("max-alignments")
+                .desc("count the alignments of each probe in a first pass "
+                        + "over the probe BAM file, and classify only the "
+                        + "probes with at most this many")
+                .hasArg(true)
+                .required(false)
+                .build();
+        
+        Option buildIndexOption = Option.builder()
+                .longOpt("build-index")
+                .desc("rebuild the index given by --index and exit without "
+                        + "reading probes")
+                .hasArg(false)
+                .required(false)
                 .build();
         
         Options helpOptions = new Options().addOption(helpOption);
@@ -134,6 +477,23 @@ public class TransposonProbeAnalyzer {
                 .addOption(repeatsOption)
                 .addOption(genesOption)
                 .addOption(probesOption)
+                .addOption(outputOption)
+                .addOption(indexOption)
+                .addOption(buildIndexOption)
+                .addOption(sweepOption)
+                .addOption(byChromosomeOption)
+                .addOption(hitPlacementOption)
+                .addOption(repeatCoverageOption)
+                .addOption(countOnlyOption)
+                .addOption(topNamesOption)
+                .addOption(exactHitsOption)
+                .addOption(rejectOption)
+                .addOption(rejectedOption)
+                .addOption(minAlignmentsOption)
+                .addOption(maxAlignmentsOption)
+                .addOption(threadsOption)
+                .addOption(locusCacheOption)
+                .addOption(bgzfThreadsOption)
                 .addOption(debugOption);
         
         Options allOptions = new Options();
@@ -167,262 +527,574 @@ public class TransposonProbeAnalyzer {
             System.exit(1);
         }
         
+        for (String option : Arrays.asList("threads", "top-names")) {
+            if (!rtrn.hasOption(option)) {
+                continue;
+            }
+            String value = rtrn.getOptionValue(option);
+            try {
+                if (Integer.parseInt(value) >= 1) {
+                    continue;
+                }
+                LOGGER.severe("--" + option + " must be a positive integer, not "
+                        + value);
+            } catch (NumberFormatException e) {
+                LOGGER.severe("--" + option + " must be a positive integer: "
+                        + e.getMessage());
+            }
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        for (String option : Arrays.asList("locus-cache", "bgzf-threads",
+                "exact-hits", "min-alignments", "max-alignments")) {
+            if (!rtrn.hasOption(option)) {
+                continue;
+            }
+            String value = rtrn.getOptionValue(option);
+            try {
+                if (Integer.parseInt(value) >= 0) {
+                    continue;
+                }
+                LOGGER.severe("--" + option + " must be a non-negative integer, "
+                        + "not " + value);
+            } catch (NumberFormatException e) {
+                LOGGER.severe("--" + option + " must be a non-negative integer: "
+                        + e.getMessage());
+            }
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (rtrn.hasOption("repeat-coverage")
+                && !Arrays.asList("merged", "bitmap").contains(
+                        rtrn.getOptionValue("repeat-coverage"))) {
+            LOGGER.severe("--repeat-coverage must be \"merged\" or \"bitmap\"");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (rtrn.hasOption("reject")) {
+            try {
+                parseRejectThresholds(rtrn.getOptionValue("reject"),
+                        rtrn.hasOption("hit-placement"));
+            } catch (IllegalArgumentException e) {
+                LOGGER.severe("--reject: " + e.getMessage());
+                formatter.printHelp(HELP_TEXT, allOptions);
+                System.exit(1);
+            }
+        } else if (rtrn.hasOption("rejected")) {
+            LOGGER.severe("--rejected requires --reject");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (rtrn.hasOption("build-index") && !rtrn.hasOption("index")) {
+            LOGGER.severe("--build-index requires --index");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (rtrn.hasOption("sweep") && rtrn.hasOption("index")) {
+            LOGGER.severe("--sweep cannot be used with --index");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (rtrn.hasOption("sweep") && rtrn.hasOption("by-chromosome")) {
+            LOGGER.severe("--sweep cannot be used with --by-chromosome");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
+        if (!rtrn.hasOption("build-index") && !rtrn.hasOption("probes")) {
+            LOGGER.severe("Missing required option: probes");
+            formatter.printHelp(HELP_TEXT, allOptions);
+            System.exit(1);
+        }
+        
         return rtrn;
     }
     
-    public void loadRepeats() {
-        LOGGER.info("Loading repeats.");
-        try (BedParser bp = new BedParser(repeatsPath)) {
-            bp.stream().forEach(repeats::add);
+    /**
+     * Loads the repeat and gene annotations, either from the annotation index
+     * or by parsing the BED files. If an index path was given but the index
+     * is missing, out of date, or a rebuild was requested, the index is
+     * written after parsing.
+     */
+    public void loadAnnotations() {
+        if (indexPath != null && !rebuildIndex) {
+            LOGGER.info("Loading annotation index.");
+            long indexStart = System.currentTimeMillis();
+            Optional<List<AnnotationTrack>> tracks =
+                    AnnotationIndexFile.read(indexPath, getAnnotationSources());
+            if (tracks.isPresent()) {
+                repeats = tracks.get().get(0);
+                genes = tracks.get().get(1);
+                context.setAnnotationNames(repeats.getNames(), genes.getNames());
+                LOGGER.info("Loaded " + repeats.size() + " repeat annotations "
+                        + "and " + genes.size() + " gene annotations from "
+                        + indexPath + " in "
+                        + (System.currentTimeMillis() - indexStart)
+                        + " milliseconds.");
+                return;
+            }
         }
-        LOGGER.info("Loaded " + repeats.size() + " repeat annotations");
-    }
-    
-    public void loadGenes() {
-        LOGGER.info("Loading genes.");
-        try (BedParser bp = new BedParser(genesPath)) {
-            bp.stream().forEach(genes::add);
+        
+        AnnotationIndex<NamedAnnotation> repeatRecords = loadRepeats();
+        AnnotationIndex<NamedAnnotation> geneRecords = loadGenes();
+        
+        // Hit placement does not need the gene classes, but an index must
+        // hold them for later runs without it.
+        boolean classify = !hitPlacement || indexPath != null;
+        Coverage repeatCoverage = null;
+        if (classify) {
+            long coverageStart = System.currentTimeMillis();
+            repeatCoverage = Coverage.of(repeatRecords, repeatCoverageRepresentation);
+            LOGGER.info("Built repeat coverage as "
+                    + repeatCoverageRepresentation + " of "
+                    + repeatCoverage.sizeInBytes() + " bytes in "
+                    + (System.currentTimeMillis() - coverageStart)
+                    + " milliseconds.");
+            LOGGER.info("Classifying genes by repeat overlap.");
+        }
+        long classifyStart = System.currentTimeMillis();
+        Coverage coverage = repeatCoverage;
+        repeats = AnnotationTrack.from(repeatRecords, NamedAnnotation::getName,
+                x -> 0, pool);
+        genes = AnnotationTrack.from(geneRecords, NamedAnnotation::getName,
+                x -> classify ? GeneClass.of(coverage::overlaps, x).ordinal() : 0,
+                true, pool);
+        context.setAnnotationNames(repeats.getNames(), genes.getNames());
+        if (classify) {
+            LOGGER.info("Classified " + genes.size() + " genes in "
+                    + (System.currentTimeMillis() - classifyStart) + " milliseconds.");
         }
-        LOGGER.info("Loaded " + genes.size() + " gene annotations.");
         
-        LOGGER.info("Loading introns.");
-        for (Annotated a : genes) {
-            a.getIntronStream().forEach(introns::add);
+        if (indexPath != null) {
+            LOGGER.info("Writing annotation index " + indexPath + ".");
+            AnnotationIndexFile.write(indexPath, getAnnotationSources(),
+                    Arrays.asList(repeats, genes));
         }
-        LOGGER.info("Loaded " + introns.size() + " intron annotations.");
+    }
+    
+    private List<Path> getAnnotationSources() {
+        return Arrays.asList(repeatsPath, genesPath);
+    }
+    
+    private AnnotationIndex<NamedAnnotation> loadRepeats() {
+        LOGGER.info("Loading repeats.");
+        AnnotationIndex<NamedAnnotation> rtrn = loadBedFile(repeatsPath);
+        LOGGER.info("Loaded " + rtrn.size() + " repeat annotations");
+        return rtrn;
+    }
+    
+    private AnnotationIndex<NamedAnnotation> loadGenes() {
+        LOGGER.info("Loading genes.");
+        AnnotationIndex<NamedAnnotation> rtrn = loadBedFile(genesPath);
+        LOGGER.info("Loaded " + rtrn.size() + " gene annotations.");
+        return rtrn;
+    }
+    
+    /**
+     * Parses a BED file, in chunks on the worker pool if there is one, and
+     * indexes its records one reference per task. Only the columns that
+     * locate and name each record are kept.
+     */
+    private AnnotationIndex<NamedAnnotation> loadBedFile(Path path) {
+        long start = System.currentTimeMillis();
+        List<NamedAnnotation> records = BedFileLoader.loadNamed(path, pool,
+                pool == null ? 1 : 4 * threads);
+        long parsed = System.currentTimeMillis();
+        AnnotationIndex<NamedAnnotation> rtrn = AnnotationIndex.of(records, pool);
+        LOGGER.info("Parsed " + path + " in " + (parsed - start) + " ms and "
+                + "indexed it in " + (System.currentTimeMillis() - parsed) + " ms.");
+        return rtrn;
     }
     
     public void loadProbes() {
         LOGGER.info("Loading probes.");
-        try (SingleReadBamParser bp = new SingleReadBamParser(probesPath)) {
-            bp.getAlignmentStream()
-                .peek(x -> LOGGER.finest("Reading probe " + x.toFormattedBedString(4)))
-                .forEach(x -> addRead(x));
-        }
+        processAlignments(this::classify, this::addPositions);
         LOGGER.info("Loaded " + probes.size() + " probes.");
+        logLocusCache();
     }
     
-    public void addRead(SingleReadAlignment a) {
-        LOGGER.log(Level.FINEST, "Adding probe " + a.getName());
-        String name = a.getName();
-        Probe probe = probes.getOrDefault(name, new Probe());
-        probe.addPosition(a);
-        probes.put(name, probe);
+    /**
+     * Logs how often the locus cache found the overlaps of an alignment.
+     */
+    private void logLocusCache() {
+        if (locusCache == null) {
+            return;
+        }
+        LOGGER.info(String.format("Locus cache: %d hits, %d misses (%.1f%% "
+                + "hit rate), %d loci cached.", locusCache.getHits(),
+                locusCache.getMisses(), 100 * locusCache.getHitRate(),
+                locusCache.size()));
     }
     
-    public void print() {
-        System.out.println("NAME\tREPEATS\tGENES_NO_REPEATS\t" + 
-                "GENES_EXONS_WITH_REPEATS\tGENES_INTRONS_WITH_REPEATS\tSEQUENCE");
-        for (Probe probe : probes.values()) {
-            System.out.println(probe.toString());
+    /**
+     * Returns whether the header of the probe BAM file declares that it is
+     * sorted by coordinate.
+     */
+    public boolean probesAreSortedByCoordinate() {
+        return SamReaderFactory.makeDefault().getFileHeader(probesPath.toFile())
+                .getSortOrder() == SortOrder.coordinate;
+    }
+    
+    /**
+     * Returns whether the probe BAM file has an index.
+     */
+    public boolean probesAreIndexed() {
+        try (SamReader reader = SamReaderFactory.makeDefault().open(probesPath.toFile())) {
+            return reader.hasIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + probesPath, e);
         }
     }
     
     /**
-     * A class to represent a RAP probe.
+     * Reads the probes from an indexed, coordinate-sorted BAM file with a
+     * {@link ChromosomeProbeLoader}, with one task per chromosome on the
+     * worker pool if more than one thread was requested.
      */
-    public class Probe {
-        
-        private String name;
-        private String seq;
-        
-        /**
-         * A list of positions that this probe aligns to.
-         */
-        private final List<Position> positions;
-        
-        public Probe() {
-            positions = new ArrayList<>();
+    public void loadProbesByChromosome() {
+        LOGGER.info("Loading probes by chromosome.");
+        new ChromosomeProbeLoader(probesPath, context, this::hasWantedMultiplicity,
+                this::positionUnlessRejected).loadInto(probes, pool);
+        LOGGER.info("Loaded " + probes.size() + " probes.");
+        logLocusCache();
+    }
+    
+    /**
+     * Reads the probes from a coordinate-sorted BAM file, classifying each
+     * alignment with a {@link ProbeSweep} through the repeat and gene BED
+     * files instead of indexing them.
+     */
+    public void sweepProbes() {
+        SAMFileHeader header = SamReaderFactory.makeDefault()
+                .getFileHeader(probesPath.toFile());
+        try (ProbeSweep sweep = new ProbeSweep(repeatsPath, genesPath,
+                header::getSequenceIndex, hitPlacement, context)) {
+            context.setAnnotationNames(sweep.getRepeatNames(), sweep.getGeneNames());
+            LOGGER.info("Loading probes.");
+            processAlignments(sweep::classify, this::addPositions);
+            sweep.logWindowSizes();
         }
-        
-        public void addPosition(SingleReadAlignment a) {
-            if (name == null) {
-                name = a.getName();
-            } else {
-                if (!name.equals(a.getName())) {
-                    throw new IllegalArgumentException("Read name does not "
-                            + "match probe name: " + name + " != "
-                            + a.getName());
-                }
-            }
-            
-            if (seq == null) {
-                seq = a.getBases();
-            } else {
-                if (!(seq.equals(a.getBases()) ||
-                      seq.equals(Sequences.reverseComplement(a.getBases())))) {
-                    throw new IllegalArgumentException("Read sequence does "
-                            + "not match probe sequence: " + seq + " != "
-                            + a.getBases());
-                }
-            }
-            positions.add(new Position(a));
-        }
-        
-        /**
-         * A string representation of this probe suitable for printing into the
-         * output text file.
-         */
-        @Override
-        public String toString() {
-            
-            Map<String, Integer> repeatNames = new HashMap<>();
-            Map<String, Integer> geneNoRepeatsNames = new HashMap<>();
-            Map<String, Integer> geneExonOverlapsRepeatNames = new HashMap<>();
-            Map<String, Integer> geneIntronOverlapsRepeatNames = new HashMap<>();
-
-            for (Position position : positions) {
-                
-                for (String geneName : position.geneNoRepeatsNames) {
-                    int val = geneNoRepeatsNames.getOrDefault(geneName, 0);
-                    geneNoRepeatsNames.put(geneName, val + 1);
-                }
-                
-                for (String geneName : position.geneExonOverlapsRepeatNames) {
-                    int val = geneExonOverlapsRepeatNames.getOrDefault(geneName, 0);
-                    geneExonOverlapsRepeatNames.put(geneName, val + 1);
-                }
-                
-                for (String geneName : position.geneIntronOverlapsRepeatNames) {
-                    int val = geneIntronOverlapsRepeatNames.getOrDefault(geneName, 0);
-                    geneIntronOverlapsRepeatNames.put(geneName, val + 1);
-                }
-                
-                for (String repeatName : position.repeatNames) {
-                    int val = repeatNames.getOrDefault(repeatName, 0);
-                    repeatNames.put(repeatName, val + 1);
-                }
+        LOGGER.info("Loaded " + probes.size() + " probes.");
+    }
+    
+    /**
+     * Returns whether the header of the probe BAM file declares that all
+     * alignments of a read are adjacent, either because the file is sorted
+     * by query name or because it is grouped by query.
+     */
+    public boolean probesAreGroupedByName() {
+        SAMFileHeader header = SamReaderFactory.makeDefault()
+                .getFileHeader(probesPath.toFile());
+        return header.getSortOrder() == SortOrder.queryname
+                || header.getGroupOrder() == GroupOrder.query;
+    }
+    
+    /**
+     * Reads the probes from a BAM file in which all alignments of a probe are
+     * adjacent, printing each probe as soon as its last alignment has been
+     * read. Only one probe is held in memory at a time.
+     * <p>
+     * The grouping is not verified. If the alignments of a probe are not
+     * adjacent, that probe is printed once per run of alignments.
+     */
+    public void streamProbes() {
+        LOGGER.info("Streaming probes grouped by name.");
+        printHeader();
+        ProbeStreamer streamer = new ProbeStreamer(context, PROBE_BATCH_SIZE,
+                this::printProbes);
+        processAlignments(this::classify, streamer);
+        streamer.finish();
+        output.flush();
+        LOGGER.info("Streamed " + streamer.getCount() + " probes.");
+        logRejected();
+        logLocusCache();
+    }
+    
+    /**
+     * Runs the probe alignments through a {@link ProbePipeline}, skipping
+     * those of probes outside the range given by --min-alignments and
+     * --max-alignments.
+     *
+     * @param classifier computes the positions of a batch of alignments, in
+     * order
+     * @param consumer receives each batch of alignments together with their
+     * positions
+     */
+    void processAlignments(
+            Function<List<SingleReadAlignment>, Position[]> classifier,
+            BiConsumer<List<SingleReadAlignment>, Position[]> consumer) {
+        new ProbePipeline(probesPath, bgzfThreads, this::hasWantedMultiplicity)
+                .run(classifier, consumer);
+    }
+    
+    /**
+     * Counts the alignments of each probe without classifying them, if
+     * probes are filtered by their number of alignments. This is a pass over
+     * the probe BAM file that makes no overlap queries, after which the
+     * alignments of probes outside the range given by --min-alignments and
+     * --max-alignments are skipped as they are read.
+     */
+    public void countAlignments() {
+        if (minAlignments == 0 && maxAlignments == Integer.MAX_VALUE) {
+            return;
+        }
+        LOGGER.info("Counting alignments per probe.");
+        long countStart = System.currentTimeMillis();
+        NameCounter counts = new NameCounter();
+        long numAlignments = 0;
+        if (bgzfThreads > 0) {
+            try (ParallelBamReader bp = new ParallelBamReader(probesPath, bgzfThreads)) {
+                numAlignments = countNames(bp.getAlignmentIterator(), counts);
             }
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append(name + "\t");
-
-            if (repeatNames.isEmpty()) {
-                sb.append(".");
-            } else {
-                for (Entry<String, Integer> entry : repeatNames.entrySet()) {
-                    sb.append(entry.getValue() + ":" + entry.getKey() + ";");
-                }
+        } else {
+            try (SingleReadBamParser bp = new SingleReadBamParser(probesPath)) {
+                numAlignments = countNames(bp.getAlignmentIterator(), counts);
             }
-            
-            sb.append("\t");
-            
-            if (geneNoRepeatsNames.isEmpty()) {
-                sb.append(".");
-            } else {
-                for (Entry<String, Integer> entry : geneNoRepeatsNames.entrySet()) {
-                    sb.append(entry.getValue() + ":" + entry.getKey() + ";");
-                }
+        }
+        multiplicities = counts;
+        LOGGER.info("Counted " + numAlignments + " alignments of "
+                + counts.size() + " probes in "
+                + (System.currentTimeMillis() - countStart) + " milliseconds. "
+                + counts.countBetween(minAlignments, maxAlignments)
+                + " probes have between " + minAlignments + " and "
+                + maxAlignments + " alignments.");
+    }
+    
+    /**
+     * Counts the alignments of each read name.
+     *
+     * @return the number of alignments
+     */
+    private static long countNames(Iterator<SingleReadAlignment> alignments,
+            NameCounter counts) {
+        long rtrn = 0;
+        while (alignments.hasNext()) {
+            counts.increment(alignments.next().getName());
+            rtrn++;
+        }
+        return rtrn;
+    }
+    
+    /**
+     * Returns whether the probe of an alignment has a number of alignments
+     * within the requested range, which is always true if probes are not
+     * filtered by their number of alignments.
+     */
+    private boolean hasWantedMultiplicity(SingleReadAlignment a) {
+        if (multiplicities == null) {
+            return true;
+        }
+        int count = multiplicities.get(a.getName());
+        return count >= minAlignments && count <= maxAlignments;
+    }
+    
+    /**
+     * Computes the position of each alignment in a batch, spreading the work
+     * across the worker threads.
+     *
+     * @return the positions, in the same order as the alignments
+     */
+    private Position[] classify(List<SingleReadAlignment> batch) {
+        Position[] rtrn = new Position[batch.size()];
+        parallelFor(batch.size(), i -> {
+            SingleReadAlignment a = batch.get(i);
+            LOGGER.finest("Reading probe " + a.toFormattedBedString(4));
+            rtrn[i] = positionUnlessRejected(a);
+        });
+        return rtrn;
+    }
+    
+    /**
+     * Runs the given action once for each integer in <code>[0, size)</code>.
+     * If more than one thread was requested, the range is split into chunks
+     * that run on the worker pool, and this method returns once all of them
+     * have finished.
+     */
+    private void parallelFor(int size, IntConsumer action) {
+        if (pool == null || size < 2) {
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
             }
-            
-            sb.append("\t");
-
-            if (geneExonOverlapsRepeatNames.isEmpty()) {
-                sb.append(".");
-            } else {
-                for (Entry<String, Integer> entry : geneExonOverlapsRepeatNames.entrySet()) {
-                    sb.append(entry.getValue() + ":" + entry.getKey() + ";");
+            return;
+        }
+        
+        int numChunks = Math.min(size, 4 * threads);
+        List<Callable<Void>> tasks = new ArrayList<>(numChunks);
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            int from = (int) ((long) size * chunk / numChunks);
+            int to = (int) ((long) size * (chunk + 1) / numChunks);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
                 }
+                return null;
+            });
+        }
+        Tasks.invokeAll(pool, tasks);
+    }
+    
+    /**
+     * Returns the name IDs of the annotations overlapping an alignment,
+     * indexed by output column. Overlaps depend only on the span of the
+     * alignment, so they are looked up in the locus cache by span first.
+     */
+    private int[][] classifyLocus(Alignment a) {
+        if (locusCache == null) {
+            return findOverlaps(a).toNameIds();
+        }
+        return locusCache.computeIfAbsent(new Locus(a.getReferenceName(),
+                a.getStart(), a.getEnd()), locus -> findOverlaps(a).toNameIds());
+    }
+    
+    /**
+     * Finds the repeats and genes whose bodies overlap an alignment. With hit
+     * placement, each gene is placed by a binary search of its exon
+     * boundaries rather than by its class.
+     */
+    private Overlaps findOverlaps(Alignment a) {
+        Overlaps rtrn = new Overlaps();
+        repeats.forEachBodyOverlapper(a,
+                id -> rtrn.addRepeat(repeats.getNameId(id)));
+        if (hitPlacement) {
+            genes.forEachBodyOverlapper(a, id -> rtrn.addGene(genes.getNameId(id),
+                    genes.placeWithinBlocks(id, a.getStart(), a.getEnd())));
+        } else {
+            genes.forEachBodyOverlapper(a, id -> rtrn.addGene(genes.getNameId(id),
+                    GeneClass.fromOrdinal(genes.getTag(id))));
+        }
+        return rtrn;
+    }
+    
+    /**
+     * Returns the position of an alignment, or null without querying its
+     * overlaps if its probe has already been rejected.
+     */
+    private Position positionUnlessRejected(SingleReadAlignment a) {
+        return isRejected(a) ? null : position(a);
+    }
+    
+    private boolean isRejected(SingleReadAlignment a) {
+        return context.isRejected(a.getName());
+    }
+    
+    /**
+     * Returns the position of an alignment, with the annotations that
+     * overlap it.
+     */
+    private Position position(Alignment a) {
+        return new Position(a, classifyLocus(a));
+    }
+    
+    public void addRead(SingleReadAlignment a) {
+        LOGGER.log(Level.FINEST, "Adding probe " + a.getName());
+        addPosition(a, positionUnlessRejected(a));
+    }
+    
+    private void addPosition(SingleReadAlignment a, Position position) {
+        probes.getOrCreate(a.getName()).addPosition(a, position);
+    }
+    
+    private void addPositions(List<SingleReadAlignment> alignments,
+            Position[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            addPosition(alignments.get(i), positions[i]);
+        }
+    }
+    
+    public void print() {
+        printHeader();
+        List<Probe> batch = new ArrayList<>(PROBE_BATCH_SIZE);
+        for (int id = 0; id < probes.size(); id++) {
+            batch.add(probes.get(id));
+            if (batch.size() == PROBE_BATCH_SIZE) {
+                printProbes(batch);
+                batch.clear();
             }
-            
-            sb.append("\t");
-
-            if (geneIntronOverlapsRepeatNames.isEmpty()) {
-                sb.append(".");
-            } else {
-                for (Entry<String, Integer> entry : geneIntronOverlapsRepeatNames.entrySet()) {
-                    sb.append(entry.getValue() + ":" + entry.getKey() + ";");
-                }
+        }
+        printProbes(batch);
+        output.flush();
+        logRejected();
+    }
+    
+    /**
+     * Prints a batch of probes in order. If there are worker threads, each
+     * formats a contiguous share of the batch into its own buffer, and the
+     * buffers are then written out in order.
+     */
+    private void printProbes(List<Probe> batch) {
+        if (!context.screensProbes()) {
+            printProbes(batch, output);
+            return;
+        }
+        List<Probe> accepted = new ArrayList<>(batch.size());
+        List<Probe> rejected = new ArrayList<>();
+        for (Probe probe : batch) {
+            (probe.isRejected() ? rejected : accepted).add(probe);
+        }
+        for (Probe probe : rejected) {
+            context.forgetRejected(probe.getName());
+        }
+        printProbes(accepted, output);
+        if (rejectedOutput != null) {
+            printProbes(rejected, rejectedOutput);
+        }
+        numRejected += rejected.size();
+    }
+    
+    private void printProbes(List<Probe> batch, TsvWriter out) {
+        if (formatBuffers.length == 0) {
+            for (Probe probe : batch) {
+                probe.writeTo(out);
+                out.newline();
             }
-            
-            sb.append("\t" + seq);
-            return sb.toString();
+            return;
         }
         
-        @Override
-        public boolean equals(Object other) {
-            if (this == other) {
-                return true;
+        int numChunks = formatBuffers.length;
+        parallelFor(numChunks, chunk -> {
+            int from = (int) ((long) batch.size() * chunk / numChunks);
+            int to = (int) ((long) batch.size() * (chunk + 1) / numChunks);
+            for (int i = from; i < to; i++) {
+                batch.get(i).writeTo(formatBuffers[chunk]);
+                formatBuffers[chunk].newline();
             }
-            
-            if (!(other instanceof Probe)) {
-                return false;
-            }
-            
-            Probe o = (Probe) other;
-            return positions.equals(o.positions);
+        });
+        for (TsvWriter buffer : formatBuffers) {
+            buffer.drainTo(out);
         }
-        
-        @Override
-        public int hashCode() {
-            return positions.hashCode();
+    }
+    
+    private void printHeader() {
+        output.write("NAME\t" + String.join("\t", context.getColumnNames())
+                + "\tSEQUENCE").newline();
+        if (rejectedOutput != null) {
+            rejectedOutput.write("NAME\tREJECTED_BY\tALIGNMENTS\tSEQUENCE")
+                          .newline();
         }
     }
     
     /**
-     * An extension of the {@link Annotation} class that keeps track of the
-     * names of any overlapping elements or genes. Used to represent where a
-     * probe aligns.
+     * Logs how many probes were rejected, if probes are being screened.
      */
-    public class Position extends Annotation {
-        
-        private final String name;
-        private final List<String> geneNoRepeatsNames;
-        private final List<String> geneExonOverlapsRepeatNames;
-        private final List<String> geneIntronOverlapsRepeatNames;
-        private final List<String> repeatNames;
-        
-        public Position(Alignment a) {
-            super(a);
-            name = a.getName();
-            geneNoRepeatsNames = new ArrayList<>();
-            geneExonOverlapsRepeatNames = new ArrayList<>();
-            geneIntronOverlapsRepeatNames = new ArrayList<>();
-            repeatNames = new ArrayList<>();
-            repeats.bodyOverlappers(a.getBody())
-                .forEachRemaining(x -> repeatNames.add(x.getName()));
-            
-            genes.bodyOverlappers(a.getBody())
-                 .forEachRemaining(x -> {
-                     if (!repeats.overlaps(x.getBody())) {
-                         geneNoRepeatsNames.add(x.getName());
-                     } else if (repeats.overlaps(x)) {
-                         geneExonOverlapsRepeatNames.add(x.getName());
-                     } else {
-                         geneIntronOverlapsRepeatNames.add(x.getName());
-                     }
-                 });
-        }
-        
-        @Override
-        public boolean equals(Object other) {
-            
-            if (this == other) {
-                return true;
-            }
-            
-            if (!(other instanceof Position)) {
-                return false;
-            }
-            
-            Position o = (Position) other;
-            return super.equals(o) &&
-                    name.equals(o.name) &&
-                    geneNoRepeatsNames.equals(o.geneNoRepeatsNames) &&
-                    geneExonOverlapsRepeatNames.equals(o.geneExonOverlapsRepeatNames) &&
-                    geneIntronOverlapsRepeatNames.equals(o.geneIntronOverlapsRepeatNames) &&
-                    repeatNames.equals(o.repeatNames);
-        }
-        
-        @Override
-        public int hashCode() {
-            int hashCode = super.hashCode();
-            hashCode = 37 * hashCode + name.hashCode();
-            hashCode = 37 * hashCode + geneNoRepeatsNames.hashCode();
-            hashCode = 37 * hashCode + geneExonOverlapsRepeatNames.hashCode();
-            hashCode = 37 * hashCode + geneIntronOverlapsRepeatNames.hashCode();
-            hashCode = 37 * hashCode + repeatNames.hashCode();
-            return hashCode;
+    private void logRejected() {
+        if (context.screensProbes()) {
+            LOGGER.info("Rejected " + numRejected + " probes.");
+        }
+    }
+    
+    /**
+     * Flushes and closes the output.
+     */
+    public void closeOutput() {
+        output.close();
+        if (rejectedOutput != null) {
+            rejectedOutput.close();
         }
     }
 }
@@ -0,0 +1,87 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static edu.caltech.lncrna.arraytools.datastructures.BlockPlacement.ACROSS_BOUNDARY;
+import static edu.caltech.lncrna.arraytools.datastructures.BlockPlacement.WITHIN_BLOCK;
+import static edu.caltech.lncrna.arraytools.datastructures.BlockPlacement.WITHIN_GAP;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockPlacementTest {
+
+    // Blocks [100, 200), [300, 400) and [500, 600), between the boundaries
+    // of other annotations in the same array.
+    private static final int[] BOUNDARIES = {10, 20, 100, 200, 300, 400, 500, 600, 700, 800};
+    private static final int FROM = 2;
+    private static final int TO = 8;
+
+    @Test
+    public void testBlockEdges() {
+        assertEquals(WITHIN_BLOCK, place(100, 101));
+        assertEquals(WITHIN_BLOCK, place(199, 200));
+        assertEquals(WITHIN_BLOCK, place(100, 200));
+        assertEquals(ACROSS_BOUNDARY, place(199, 201));
+        assertEquals(WITHIN_GAP, place(200, 201));
+        assertEquals(WITHIN_GAP, place(200, 300));
+        assertEquals(WITHIN_GAP, place(299, 300));
+        assertEquals(ACROSS_BOUNDARY, place(299, 301));
+        assertEquals(WITHIN_BLOCK, place(300, 301));
+        assertEquals(ACROSS_BOUNDARY, place(150, 350));
+        assertEquals(ACROSS_BOUNDARY, place(250, 550));
+    }
+
+    @Test
+    public void testOverhangIsIgnored() {
+        assertEquals(WITHIN_BLOCK, place(50, 101));
+        assertEquals(WITHIN_BLOCK, place(550, 650));
+        assertEquals(WITHIN_BLOCK, place(599, 1000));
+        assertEquals(ACROSS_BOUNDARY, place(0, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntervalBeforeBody() {
+        place(50, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntervalAfterBody() {
+        place(600, 650);
+    }
+
+    @Test
+    public void testAgainstBaseByBase() {
+        Random random = new Random(19);
+        for (int q = 0; q < 10000; q++) {
+            int start = 50 + random.nextInt(600);
+            int end = start + 1 + random.nextInt(q % 2 == 0 ? 10 : 300);
+            int first = Math.max(start, 100);
+            int last = Math.min(end, 600) - 1;
+            if (first > last) {
+                continue;
+            }
+            boolean inBlock = inBlock(first);
+            boolean crosses = false;
+            for (int p = first + 1; p <= last; p++) {
+                crosses |= inBlock(p) != inBlock;
+            }
+            BlockPlacement expected = crosses ? ACROSS_BOUNDARY
+                    : inBlock ? WITHIN_BLOCK : WITHIN_GAP;
+            assertEquals(start + "-" + end, expected, place(start, end));
+        }
+    }
+
+    private static boolean inBlock(int position) {
+        for (int i = FROM; i < TO; i += 2) {
+            if (BOUNDARIES[i] <= position && position < BOUNDARIES[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BlockPlacement place(int start, int end) {
+        return BlockPlacement.of(BOUNDARIES, FROM, TO, start, end);
+    }
+}
@@ -0,0 +1,84 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.caltech.lncrna.arraytools.datastructures.Coverage.Representation;
+import edu.caltech.lncrna.bio.annotation.Annotated;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+import edu.caltech.lncrna.bio.annotation.Strand;
+
+public class CoverageTest {
+
+    private static final String[] REFS = {"chr1", "chr2"};
+    private static final Strand[] STRANDS = {Strand.POSITIVE, Strand.NEGATIVE, Strand.BOTH};
+
+    @Test
+    public void testRepresentationsAgree() {
+        Random random = new Random(23);
+        for (int numAnnotations : new int[] {0, 1, 20, 2000}) {
+            List<Annotated> annotations = new ArrayList<>();
+            for (int i = 0; i < numAnnotations; i++) {
+                annotations.add(randomAnnotation(random, 100));
+            }
+            Coverage merged = Coverage.of(annotations, Representation.MERGED_INTERVALS);
+            Coverage bitmap = Coverage.of(annotations, Representation.BITMAP);
+
+            for (int q = 0; q < 2000; q++) {
+                Annotated query = randomAnnotation(random, q % 2 == 0 ? 20 : 2000);
+                boolean expected = annotations.stream().anyMatch(a -> a.overlaps(query));
+                assertEquals(query.toString(), expected, merged.overlaps(query));
+                assertEquals(query.toString(), expected, bitmap.overlaps(query));
+            }
+        }
+    }
+
+    @Test
+    public void testAdjacentBlocksDoNotOverlap() {
+        List<Annotated> annotations = new ArrayList<>();
+        annotations.add(new Annotation("chr1", 100, 200, Strand.POSITIVE));
+        annotations.add(new Annotation("chr1", 200, 300, Strand.POSITIVE));
+        for (Representation r : Representation.values()) {
+            Coverage coverage = Coverage.of(annotations, r);
+            assertFalse(coverage.overlaps(
+                    new Annotation("chr1", 300, 400, Strand.POSITIVE)));
+            assertFalse(coverage.overlaps(
+                    new Annotation("chr1", 0, 100, Strand.BOTH)));
+            assertTrue(coverage.overlaps(
+                    new Annotation("chr1", 199, 201, Strand.POSITIVE)));
+            assertTrue(coverage.overlaps(
+                    new Annotation("chr1", 299, 300, Strand.BOTH)));
+            assertFalse(coverage.overlaps(
+                    new Annotation("chr1", 150, 250, Strand.NEGATIVE)));
+            assertFalse(coverage.overlaps(
+                    new Annotation("chr2", 150, 250, Strand.POSITIVE)));
+        }
+        assertTrue(Coverage.of(annotations, Representation.BITMAP).sizeInBytes()
+                >= 300 / Byte.SIZE);
+    }
+
+    /**
+     * Returns an annotation of one to three blocks within the first 100 kb
+     * of a reference.
+     */
+    private static Annotated randomAnnotation(Random random, int maxBlockLength) {
+        String ref = REFS[random.nextInt(REFS.length)];
+        Strand strand = STRANDS[random.nextInt(STRANDS.length)];
+        Annotation.AnnotationBuilder builder = Annotation.builder();
+        int start = random.nextInt(100000);
+        int numBlocks = 1 + random.nextInt(3);
+        for (int i = 0; i < numBlocks; i++) {
+            int end = start + 1 + random.nextInt(maxBlockLength);
+            builder.addAnnotation(new Annotation(ref, start, end, strand));
+            start = end + 1 + random.nextInt(5 * maxBlockLength);
+        }
+        return builder.build();
+    }
+}
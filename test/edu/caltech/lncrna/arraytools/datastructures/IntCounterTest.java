@@ -0,0 +1,88 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntCounterTest {
+
+    @Test
+    public void testGrowthKeepsFirstSeenOrder() {
+        IntCounter counter = new IntCounter();
+        Map<Integer, Integer> expected = new LinkedHashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            // Multiples of a power of two, which share their low bits.
+            int key = random.nextInt(20000) * 1024;
+            counter.increment(key);
+            expected.merge(key, 1, Integer::sum);
+        }
+        assertEquals(expected.size(), counter.size());
+        int i = 0;
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals(e.getKey().intValue(), counter.getKey(i));
+            assertEquals(e.getValue().intValue(), counter.getCount(i));
+            assertEquals(e.getValue().intValue(), counter.get(e.getKey()));
+            i++;
+        }
+        assertEquals(0, counter.get(1));
+        assertEquals(0, counter.get(-1));
+    }
+
+    @Test
+    public void testAddAllAppendsNewKeys() {
+        IntCounter a = new IntCounter();
+        a.add(3, 2);
+        a.increment(1);
+        IntCounter b = new IntCounter();
+        b.increment(5);
+        b.add(3, 4);
+        b.increment(0);
+        a.addAll(b);
+        assertEquals(4, a.size());
+        assertEquals(3, a.getKey(0));
+        assertEquals(6, a.getCount(0));
+        assertEquals(1, a.getKey(1));
+        assertEquals(5, a.getKey(2));
+        assertEquals(0, a.getKey(3));
+    }
+
+    @Test
+    public void testEqualsIgnoresOrder() {
+        IntCounter a = new IntCounter();
+        a.increment(1);
+        a.add(2, 3);
+        IntCounter b = new IntCounter();
+        b.add(2, 3);
+        b.increment(1);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        b.increment(1);
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    public void testClear() {
+        IntCounter counter = new IntCounter();
+        for (int i = 0; i < 1000; i++) {
+            counter.increment(i);
+        }
+        counter.clear();
+        assertTrue(counter.isEmpty());
+        assertEquals(0, counter.get(5));
+        counter.increment(999);
+        assertEquals(999, counter.getKey(0));
+        assertEquals(1, counter.get(999));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeKey() {
+        new IntCounter().increment(-1);
+    }
+}
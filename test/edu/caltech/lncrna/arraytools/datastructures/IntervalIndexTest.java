@@ -0,0 +1,146 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class IntervalIndexTest {
+
+    private static final String[] REFS = {"chr1", "chr2", "chrX"};
+
+    @Test
+    public void testSortedInputAgainstScan() {
+        for (int size : new int[] {0, 1, 10, 63, 64, 65, 1000, 20000}) {
+            checkAgainstScan(randomIntervals(size, new Random(size), true), null);
+        }
+    }
+
+    @Test
+    public void testUnsortedInputAgainstScan() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int size : new int[] {2, 10, 64, 65, 1000, 20000}) {
+                List<int[]> intervals = randomIntervals(size, new Random(size), false);
+                checkAgainstScan(intervals, null);
+                checkAgainstScan(intervals, executor);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEqualStartsAndEmptyIntervals() {
+        List<int[]> intervals = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            intervals.add(new int[] {0, 100, 100 + i % 7});
+            intervals.add(new int[] {0, 150, 150});
+        }
+        checkAgainstScan(intervals, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntervalEndingBeforeStart() {
+        IntervalIndex.builder().add("chr1", 10, 9);
+    }
+
+    /**
+     * Returns intervals as {reference, start, end}, sorted by start within
+     * each reference if <code>sorted</code> is true.
+     */
+    private static List<int[]> randomIntervals(int size, Random random, boolean sorted) {
+        List<int[]> rtrn = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int start = random.nextInt(1000000);
+            // Mostly short intervals, with some long enough to span many
+            // others, as in a repeat annotation.
+            int length = random.nextInt(10) == 0 ? random.nextInt(50000)
+                    : random.nextInt(500);
+            rtrn.add(new int[] {random.nextInt(REFS.length), start, start + length});
+        }
+        if (sorted) {
+            rtrn.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0])
+                    : Integer.compare(a[1], b[1]));
+        }
+        return rtrn;
+    }
+
+    private static void checkAgainstScan(List<int[]> intervals, ExecutorService executor) {
+        IntervalIndex.Builder builder = IntervalIndex.builder();
+        for (int[] interval : intervals) {
+            builder.add(REFS[interval[0]], interval[1], interval[2]);
+        }
+        IntervalIndex built = builder.build(executor);
+        assertEquals(intervals.size(), built.size());
+        checkQueries(intervals, built);
+
+        // An index read back from a buffer queries the buffer in place.
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) built.serializedSize())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        built.writeTo(buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        IntervalIndex read = IntervalIndex.readFrom(buffer);
+        assertEquals(0, buffer.remaining());
+        assertEquals(intervals.size(), read.size());
+        checkQueries(intervals, read);
+    }
+
+    private static void checkQueries(List<int[]> intervals, IntervalIndex index) {
+
+        Random random = new Random(intervals.size());
+        for (int q = 0; q < 500; q++) {
+            int ref = random.nextInt(REFS.length);
+            int start;
+            int end;
+            if (q % 5 == 0 && !intervals.isEmpty()) {
+                // The edges of an existing interval.
+                int[] interval = intervals.get(random.nextInt(intervals.size()));
+                ref = interval[0];
+                start = random.nextBoolean() ? interval[2] : interval[1] - 1;
+                end = start + 1;
+            } else {
+                start = random.nextInt(1100000) - 50000;
+                end = start + random.nextInt(q % 2 == 0 ? 100 : 100000);
+            }
+
+            List<Integer> expected = new ArrayList<>();
+            for (int id = 0; id < intervals.size(); id++) {
+                int[] interval = intervals.get(id);
+                if (interval[0] == ref && interval[1] < end && start < interval[2]) {
+                    expected.add(id);
+                }
+            }
+
+            List<Integer> actual = new ArrayList<>();
+            index.forEachOverlapper(REFS[ref], start, end, actual::add);
+            for (int i = 1; i < actual.size(); i++) {
+                assertTrue(intervals.get(actual.get(i - 1))[1]
+                        <= intervals.get(actual.get(i))[1]);
+            }
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), index.numOverlappers(REFS[ref], start, end));
+            assertEquals(!expected.isEmpty(), index.overlaps(REFS[ref], start, end));
+            if (!expected.isEmpty()) {
+                int last = expected.get(expected.size() - 1);
+                assertTrue(index.anyOverlapperMatches(REFS[ref], start, end,
+                        id -> id == last));
+            }
+            assertFalse(index.anyOverlapperMatches(REFS[ref], start, end,
+                    id -> id < 0));
+        }
+        assertEquals(0, index.numOverlappers("chrUn", 0, Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,76 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NameCounterTest {
+
+    @Test
+    public void testNamesWithEqualHashesAreCountedSeparately() {
+        // "Aa" and "BB" have the same String hash code, as do any names
+        // built from them.
+        NameCounter counter = new NameCounter();
+        counter.increment("AaAa");
+        counter.increment("BBBB");
+        counter.increment("BBBB");
+        counter.increment("AaBB");
+        assertEquals(1, counter.get("AaAa"));
+        assertEquals(2, counter.get("BBBB"));
+        assertEquals(1, counter.get("AaBB"));
+        assertEquals(0, counter.get("BBAa"));
+        assertEquals(3, counter.size());
+    }
+
+    @Test
+    public void testRandomNamesAgainstHashMap() {
+        Random random = new Random(11);
+        NameCounter counter = new NameCounter();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            String name = "probe" + random.nextInt(50000);
+            counter.increment(name);
+            expected.merge(name, 1, Integer::sum);
+        }
+        assertEquals(expected.size(), counter.size());
+        for (Map.Entry<String, Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue().intValue(), counter.get(e.getKey()));
+        }
+        int between = 0;
+        for (int count : expected.values()) {
+            if (count >= 3 && count <= 5) {
+                between++;
+            }
+        }
+        assertEquals(between, counter.countBetween(3, 5));
+    }
+
+    @Test
+    public void testLongAndWideNames() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        String longName = builder.toString();
+        NameCounter counter = new NameCounter();
+        counter.increment(longName);
+        counter.increment("\u00e9t\u00e9");
+        counter.increment("\u03b1\u03b2");
+        counter.increment("\u03b1\u03b2");
+        assertEquals(1, counter.get(longName));
+        assertEquals(0, counter.get(longName.substring(1)));
+        assertEquals(1, counter.get("\u00e9t\u00e9"));
+        assertEquals(2, counter.get("\u03b1\u03b2"));
+        assertEquals(0, counter.get("\u03b1\u03b3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNameTooLong() {
+        char[] chars = new char[0x8000];
+        new NameCounter().increment(new String(chars));
+    }
+}
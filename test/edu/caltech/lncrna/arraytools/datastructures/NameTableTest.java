@@ -0,0 +1,66 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NameTableTest {
+
+    @Test
+    public void testGrowthKeepsFirstSeenOrder() {
+        NameTable<List<Integer>> table = new NameTable<>(ArrayList::new);
+        Map<String, List<Integer>> expected = new LinkedHashMap<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 100000; i++) {
+            String name = "probe" + random.nextInt(30000);
+            table.getOrCreate(name).add(i);
+            expected.computeIfAbsent(name, x -> new ArrayList<>()).add(i);
+        }
+        assertEquals(expected.size(), table.size());
+        int id = 0;
+        for (Map.Entry<String, List<Integer>> e : expected.entrySet()) {
+            assertEquals(e.getKey(), table.getName(id));
+            assertEquals(e.getValue(), table.get(id));
+            id++;
+        }
+    }
+
+    @Test
+    public void testNamesWithEqualHashes() {
+        // "Aa" and "BB" have the same String hash code.
+        NameTable<List<Integer>> table = new NameTable<>(ArrayList::new);
+        table.getOrCreate("AaBB").add(1);
+        table.getOrCreate("BBAa").add(2);
+        table.getOrCreate("AaBB").add(3);
+        assertEquals(2, table.size());
+        assertEquals("AaBB", table.getName(0));
+        assertEquals("BBAa", table.getName(1));
+        assertEquals(2, table.get(0).size());
+        assertEquals(1, table.get(1).size());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        NameTable<String> table = new NameTable<>(() -> "created");
+        assertNull(table.putIfAbsent("a", "first"));
+        assertSame("first", table.putIfAbsent("a", "second"));
+        assertSame("first", table.getOrCreate("a"));
+        assertSame("created", table.getOrCreate("b"));
+        assertEquals(2, table.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIdOutOfBounds() {
+        NameTable<String> table = new NameTable<>(() -> "");
+        table.getOrCreate("a");
+        table.get(1);
+    }
+}
@@ -0,0 +1,138 @@
+package edu.caltech.lncrna.arraytools.datastructures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TopCounterTest {
+
+    @Test
+    public void testMergeCreditsKeysEvictedByOther() {
+        TopCounter a = counterOf(2, 0, 1, 1, 1, 1);
+        TopCounter b = counterOf(2, 1, 0, 3, 0);
+        a.addAll(b);
+
+        int[] trueCounts = {3, 5, 0, 1};
+        assertBounds(a, trueCounts, 9);
+        for (int i = 0; i < a.size(); i++) {
+            if (a.getKey(i) == 1) {
+                assertTrue(a.getCount(i) >= 5);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomStreamsAgainstExactCounts() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 500; trial++) {
+            int capacity = 1 + random.nextInt(10);
+            int numKeys = 1 + random.nextInt(40);
+            int[] trueCounts = new int[numKeys];
+            TopCounter counter = new TopCounter(capacity);
+            int total = random.nextInt(2000);
+            for (int i = 0; i < total; i++) {
+                int key = skewedKey(random, numKeys);
+                trueCounts[key]++;
+                counter.increment(key);
+            }
+            assertBounds(counter, trueCounts, total);
+
+            // Every key counted more than N / capacity times is monitored.
+            Set<Integer> monitored = new HashSet<>();
+            for (int i = 0; i < counter.size(); i++) {
+                monitored.add(counter.getKey(i));
+            }
+            for (int key = 0; key < numKeys; key++) {
+                if (trueCounts[key] > total / capacity) {
+                    assertTrue(monitored.contains(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRandomMergesAgainstExactCounts() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 500; trial++) {
+            int capacity = 1 + random.nextInt(10);
+            int numKeys = 1 + random.nextInt(40);
+            int[] trueCounts = new int[numKeys];
+            int numParts = 2 + random.nextInt(4);
+            TopCounter merged = new TopCounter(capacity);
+            int total = 0;
+            for (int part = 0; part < numParts; part++) {
+                TopCounter counter = new TopCounter(capacity);
+                int n = random.nextInt(1000);
+                for (int i = 0; i < n; i++) {
+                    // Skew each part towards different keys, so that parts
+                    // evict keys that others keep.
+                    int key = (skewedKey(random, numKeys) + part * 7) % numKeys;
+                    trueCounts[key]++;
+                    counter.increment(key);
+                }
+                total += n;
+                merged.addAll(counter);
+                assertBounds(merged, trueCounts, total);
+            }
+        }
+    }
+
+    @Test
+    public void testMergeWithIntCounterIsExactUnderCapacity() {
+        IntCounter exact = new IntCounter();
+        exact.add(3, 5);
+        exact.add(1, 2);
+        TopCounter counter = new TopCounter(4);
+        counter.increment(1);
+        counter.addAll(exact);
+        assertEquals(2, counter.size());
+        assertEquals(3, counter.getKey(0));
+        assertEquals(5, counter.getCount(0));
+        assertEquals(0, counter.getError(0));
+        assertEquals(1, counter.getKey(1));
+        assertEquals(3, counter.getCount(1));
+        assertEquals(0, counter.getError(1));
+    }
+
+    /**
+     * Checks that counts are in descending order, never below the true
+     * count, and at most their error above it, and that no error exceeds
+     * the total divided by the capacity.
+     */
+    private static void assertBounds(TopCounter counter, int[] trueCounts, int total) {
+        int previous = Integer.MAX_VALUE;
+        for (int i = 0; i < counter.size(); i++) {
+            int key = counter.getKey(i);
+            int count = counter.getCount(i);
+            int error = counter.getError(i);
+            int trueCount = key < trueCounts.length ? trueCounts[key] : 0;
+            assertTrue(count <= previous);
+            assertTrue("count " + count + " of key " + key + " is below its "
+                    + "true count " + trueCount, count >= trueCount);
+            assertTrue("count " + count + " of key " + key + " exceeds its "
+                    + "true count " + trueCount + " by more than its error "
+                    + error, count - error <= trueCount);
+            assertTrue(error <= total / counter.capacity());
+            previous = count;
+        }
+    }
+
+    private static TopCounter counterOf(int capacity, int... keys) {
+        TopCounter rtrn = new TopCounter(capacity);
+        for (int key : keys) {
+            rtrn.increment(key);
+        }
+        return rtrn;
+    }
+
+    private static int skewedKey(Random random, int numKeys) {
+        return random.nextBoolean()
+                ? random.nextInt(numKeys)
+                : random.nextInt(1 + numKeys / 5);
+    }
+}
@@ -0,0 +1,162 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.caltech.lncrna.arraytools.datastructures.AnnotationIndex;
+import edu.caltech.lncrna.arraytools.datastructures.NamedAnnotation;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+import edu.caltech.lncrna.bio.annotation.BedFileRecord;
+
+public class BedFileLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRowsDifferingOnlyInScoreAreKept() throws IOException {
+        File bed = writeBed(
+                "chr1\t100\t200\tL1\t0\t+",
+                "chr1\t100\t200\tL1\t7\t+",
+                "chr1\t100\t200\tL1\t0\t+",
+                "chr1\t100\t200\tL1\t0\t+\t100\t200\t0,0,0\t1\t100\t0");
+        List<NamedAnnotation> records = BedFileLoader.loadNamed(bed.toPath(), null, 1);
+        assertEquals(4, records.size());
+        assertNotEquals(records.get(0), records.get(1));
+        assertEquals(records.get(0), records.get(2));
+        assertNotEquals(records.get(0), records.get(3));
+        assertNotEquals(records.get(1), records.get(3));
+        assertEquals(3, AnnotationIndex.of(records, null).size());
+    }
+
+    @Test
+    public void testVariantsAcrossChunks() throws IOException {
+        String[] lines = new String[64];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "chr" + (i % 2) + "\t10\t20\tAlu\t" + (i % 3) + "\t-";
+        }
+        File bed = writeBed(lines);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<NamedAnnotation> records = BedFileLoader.loadNamed(bed.toPath(),
+                    executor, 8);
+            assertEquals(lines.length, records.size());
+            // Two references and three scores.
+            assertEquals(6, AnnotationIndex.of(records, executor).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecordsMatchBedFileRecords() throws IOException {
+        String[] lines = {
+                "chr1\t0\t10",
+                "chr1\t5\t25\tgene1",
+                "chr2\t100\t200\tgene2\t0",
+                "chr2\t100\t200\tgene3\t0\t-",
+                "chrX\t1000\t1500\tgene4\t0\t+\t1000\t1500",
+                "chrX\t1000\t1500\tgene5\t0\t.\t1000\t1500\t255,0,0",
+                "chr3 2000 3000 gene6 0 + 2000 3000 0,0,0 3 100,50,200 0,400,800"};
+        List<NamedAnnotation> records = BedFileLoader.loadNamed(writeBed(lines).toPath(),
+                null, 1);
+        assertEquals(lines.length, records.size());
+        for (int i = 0; i < lines.length; i++) {
+            assertMatches(BedFileRecord.fromFormattedString(lines[i]), records.get(i));
+        }
+        // Coordinates are shifted by one, as BedFileRecord shifts them.
+        assertEquals(1, records.get(0).getStart());
+        assertEquals(11, records.get(0).getEnd());
+    }
+
+    @Test
+    public void testHeadersAndBlankLinesAreSkipped() throws IOException {
+        File bed = writeBed(
+                "browser position chr1:1-1000",
+                "track name=repeats",
+                "# a comment",
+                "",
+                "chr1\t10\t20\tL1\r",
+                "   ",
+                "\t",
+                "chr1\t30\t40\tAlu\r",
+                "#chr1\t50\t60\tMIR");
+        List<NamedAnnotation> records = BedFileLoader.loadNamed(bed.toPath(), null, 1);
+        assertEquals(2, records.size());
+        assertMatches(BedFileRecord.fromFormattedString("chr1\t10\t20\tL1"),
+                records.get(0));
+        assertMatches(BedFileRecord.fromFormattedString("chr1\t30\t40\tAlu"),
+                records.get(1));
+    }
+
+    @Test
+    public void testChunkBoundaries() throws IOException {
+        Random random = new Random(3);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            if (random.nextInt(20) == 0) {
+                lines.add("# header " + i);
+                continue;
+            }
+            int start = random.nextInt(100000);
+            lines.add("chr" + random.nextInt(3) + "\t" + start + "\t"
+                    + (start + 1 + random.nextInt(5000)) + "\tname" + i);
+        }
+        File bed = folder.newFile();
+        // Without a final line break, so that the last line ends the file.
+        Files.write(bed.toPath(), String.join("\n", lines)
+                .getBytes(StandardCharsets.UTF_8));
+
+        List<BedFileRecord> expected = new ArrayList<>();
+        for (String line : lines) {
+            if (!line.startsWith("#")) {
+                expected.add(BedFileRecord.fromFormattedString(line));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int numChunks : new int[] {1, 2, 3, 7, 64, 499, 2000}) {
+                List<NamedAnnotation> records = BedFileLoader.loadNamed(bed.toPath(),
+                        executor, numChunks);
+                assertEquals(expected.size(), records.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertMatches(expected.get(i), records.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testElevenFieldsAreRejected() throws IOException {
+        File bed = writeBed("chr1\t0\t10\tn\t0\t+\t0\t10\t0,0,0\t1\t10");
+        BedFileLoader.loadNamed(bed.toPath(), null, 1);
+    }
+
+    private static void assertMatches(BedFileRecord expected, NamedAnnotation actual) {
+        assertEquals(new Annotation(expected), new Annotation(actual));
+        assertEquals(expected.getName(), actual.getName());
+    }
+
+    private File writeBed(String... lines) throws IOException {
+        File rtrn = folder.newFile();
+        Files.write(rtrn.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return rtrn;
+    }
+}
@@ -0,0 +1,126 @@
+package edu.caltech.lncrna.arraytools.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.caltech.lncrna.bio.alignment.SingleReadAlignment;
+import edu.caltech.lncrna.bio.annotation.Annotation;
+import edu.caltech.lncrna.bio.io.SingleReadBamParser;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class ParallelBamReaderTest {
+
+    private static final String[] CIGARS = {"40M", "10M200N30M", "5S35M", "20M2I18M", "15M3D25M"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void testSameAlignmentsAsSingleReadBamParser() throws Exception {
+        // About 6 MB of records, or a hundred BGZF blocks.
+        File bam = writeBam(60000);
+        for (int threads : new int[] {1, 3}) {
+            int numAlignments = 0;
+            try (SingleReadBamParser expected = new SingleReadBamParser(bam.toPath());
+                    ParallelBamReader actual = new ParallelBamReader(bam.toPath(), threads)) {
+                Iterator<SingleReadAlignment> e = expected.getAlignmentIterator();
+                Iterator<SingleReadAlignment> a = actual.getAlignmentIterator();
+                while (e.hasNext()) {
+                    assertTrue(a.hasNext());
+                    assertSameAlignment(e.next(), a.next());
+                    numAlignments++;
+                }
+                assertFalse(a.hasNext());
+            }
+            // Every fifth read is unmapped.
+            assertEquals(48000, numAlignments);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testFileWithoutReads() throws Exception {
+        File bam = writeBam(0);
+        try (ParallelBamReader reader = new ParallelBamReader(bam.toPath(), 2)) {
+            assertFalse(reader.getAlignmentIterator().hasNext());
+            assertEquals("chr1", reader.getFileHeader().getSequence(0).getSequenceName());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testCloseBeforeEnd() throws Exception {
+        File bam = writeBam(60000);
+        try (ParallelBamReader reader = new ParallelBamReader(bam.toPath(), 2)) {
+            Iterator<SingleReadAlignment> a = reader.getAlignmentIterator();
+            for (int i = 0; i < 10; i++) {
+                a.next();
+            }
+        }
+    }
+
+    private static void assertSameAlignment(SingleReadAlignment expected,
+            SingleReadAlignment actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(new Annotation(expected), new Annotation(actual));
+        assertEquals(expected.getCigarString(), actual.getCigarString());
+        assertEquals(expected.isPrimaryAlignment(), actual.isPrimaryAlignment());
+        assertEquals(expected.isSupplementaryAlignment(), actual.isSupplementaryAlignment());
+        assertEquals(expected.getMappingQuality(), actual.getMappingQuality());
+        assertEquals(expected.getBases(), actual.getBases());
+    }
+
+    /**
+     * Writes a BAM file of reads across two references, on both strands and
+     * with spliced and gapped alignments. Every fifth read is unmapped, and
+     * every third mapped read is a secondary alignment.
+     */
+    private File writeBam(int numReads) throws Exception {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 10000000));
+        header.addSequence(new SAMSequenceRecord("chr2", 10000000));
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        File rtrn = folder.newFile();
+        Random random = new Random(13);
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .makeBAMWriter(header, true, rtrn)) {
+            for (int i = 0; i < numReads; i++) {
+                SAMRecord record = new SAMRecord(header);
+                record.setReadName("probe" + (i / 3));
+                record.setReadString(randomBases(random, 40));
+                record.setBaseQualityString(new String(new char[40]).replace('\0', 'I'));
+                if (i % 5 == 4) {
+                    record.setReadUnmappedFlag(true);
+                } else {
+                    record.setReferenceName(random.nextBoolean() ? "chr1" : "chr2");
+                    record.setAlignmentStart(1 + random.nextInt(9000000));
+                    record.setCigarString(CIGARS[random.nextInt(CIGARS.length)]);
+                    record.setReadNegativeStrandFlag(random.nextBoolean());
+                    record.setNotPrimaryAlignmentFlag(i % 3 == 2);
+                    record.setMappingQuality(random.nextInt(61));
+                }
+                writer.addAlignment(record);
+            }
+        }
+        return rtrn;
+    }
+
+    private static String randomBases(Random random, int length) {
+        StringBuilder rtrn = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            rtrn.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return rtrn.toString();
+    }
+}
@@ -0,0 +1,231 @@
+package edu.caltech.lncrna.arraytools.programs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+public class TransposonProbeAnalyzerTest {
+
+    private static final int NUM_ALIGNMENTS = 16 * 8192;
+
+    private static final String[] CHROMOSOMES = {"chr1", "chr2"};
+    private static final int CHROMOSOME_LENGTH = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 60000)
+    public void testFailingClassifierStopsPipeline() throws Exception {
+        File bam = writeBam(NUM_ALIGNMENTS);
+        TransposonProbeAnalyzer program = new TransposonProbeAnalyzer(
+                TransposonProbeAnalyzer.parseArgs(new String[] {
+                        "--genes", "genes.bed", "--repeats", "repeats.bed",
+                        "--probes", bam.getPath()}));
+
+        // Fail on the second batch, while the reader still has enough
+        // alignments left to fill the queue behind the classifier.
+        AtomicInteger batches = new AtomicInteger();
+        try {
+            program.processAlignments(batch -> {
+                if (batches.incrementAndGet() == 2) {
+                    throw new IllegalStateException("classifier failed");
+                }
+                return new Position[batch.size()];
+            }, (alignments, positions) -> { });
+            fail("Expected the classifier's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("classifier failed", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testSweepMatchesDefault() throws Exception {
+        writeAnnotatedProbes();
+        assertEquals(run(), run("--sweep"));
+    }
+
+    @Test(timeout = 60000)
+    public void testByChromosomeMatchesDefault() throws Exception {
+        writeAnnotatedProbes();
+        String expected = run();
+        assertEquals(expected, run("--by-chromosome"));
+        assertEquals(expected, run("--by-chromosome", "--threads", "3"));
+    }
+
+    @Test(timeout = 60000)
+    public void testIndexMatchesDefault() throws Exception {
+        writeAnnotatedProbes();
+        String expected = run();
+        File index = new File(folder.getRoot(), "annotations.idx");
+        // The first run writes the index and the second reads it.
+        assertEquals(expected, run("--index", index.getPath()));
+        assertTrue(index.isFile());
+        long written = index.lastModified();
+        assertEquals(expected, run("--index", index.getPath()));
+        assertEquals(written, index.lastModified());
+        assertEquals(expected, run("--index", index.getPath(), "--threads", "3"));
+    }
+
+    /**
+     * Runs the program on the files written by {@link #writeAnnotatedProbes()}
+     * and returns its output, normalized so that runs that find the same
+     * hits compare equal. Rows are sorted by probe name and the entries of
+     * each hit column are sorted, since the order in which hits are found
+     * depends on the mode.
+     */
+    private String run(String... args) throws IOException {
+        File output = new File(folder.getRoot(), "output.txt");
+        List<String> allArgs = new ArrayList<>(Arrays.asList(
+                "--genes", new File(folder.getRoot(), "genes.bed").getPath(),
+                "--repeats", new File(folder.getRoot(), "repeats.bed").getPath(),
+                "--probes", new File(folder.getRoot(), "probes.bam").getPath(),
+                "--output", output.getPath()));
+        allArgs.addAll(Arrays.asList(args));
+        TransposonProbeAnalyzer.main(allArgs.toArray(new String[0]));
+
+        List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+        StringBuilder rtrn = new StringBuilder(lines.get(0)).append('\n');
+        List<String> rows = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t", -1);
+            for (int i = 1; i < fields.length - 1; i++) {
+                String[] entries = fields[i].split(";");
+                Arrays.sort(entries);
+                fields[i] = String.join(";", entries);
+            }
+            rows.add(String.join("\t", fields));
+        }
+        rows.sort(Comparator.naturalOrder());
+        rows.forEach(row -> rtrn.append(row).append('\n'));
+        return rtrn.toString();
+    }
+
+    /**
+     * Writes random genes and repeats on two chromosomes, sorted by start
+     * position, and an indexed, coordinate-sorted BAM file of probes aligned
+     * across them. Most probes align more than once, and some are spliced or
+     * on the minus strand.
+     */
+    private void writeAnnotatedProbes() throws IOException {
+        Random random = new Random(17);
+        try (PrintWriter genes = new PrintWriter(folder.newFile("genes.bed"));
+                PrintWriter repeats = new PrintWriter(folder.newFile("repeats.bed"))) {
+            for (String chrom : CHROMOSOMES) {
+                int[] geneStarts = sortedStarts(random, 40, CHROMOSOME_LENGTH - 20000);
+                for (int i = 0; i < geneStarts.length; i++) {
+                    int start = geneStarts[i];
+                    int numExons = 1 + random.nextInt(4);
+                    StringBuilder sizes = new StringBuilder();
+                    StringBuilder starts = new StringBuilder();
+                    int exonStart = 0;
+                    int exonEnd = 0;
+                    for (int j = 0; j < numExons; j++) {
+                        exonEnd = exonStart + 100 + random.nextInt(500);
+                        sizes.append(exonEnd - exonStart).append(',');
+                        starts.append(exonStart).append(',');
+                        exonStart = exonEnd + 500 + random.nextInt(2000);
+                    }
+                    genes.println(String.join("\t", chrom, String.valueOf(start),
+                            String.valueOf(start + exonEnd), chrom + "Gene" + i, "0",
+                            random.nextBoolean() ? "+" : "-", String.valueOf(start),
+                            String.valueOf(start + exonEnd), "0,0,0",
+                            String.valueOf(numExons), sizes.toString(), starts.toString()));
+                }
+                for (int start : sortedStarts(random, 80, CHROMOSOME_LENGTH - 1000)) {
+                    repeats.println(String.join("\t", chrom, String.valueOf(start),
+                            String.valueOf(start + 50 + random.nextInt(450)),
+                            "Rep" + random.nextInt(30), "0",
+                            random.nextBoolean() ? "+" : "-"));
+                }
+            }
+        }
+
+        SAMFileHeader header = new SAMFileHeader();
+        for (String chrom : CHROMOSOMES) {
+            header.addSequence(new SAMSequenceRecord(chrom, CHROMOSOME_LENGTH));
+        }
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        List<SAMRecord> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String bases = randomBases(random, 40);
+            int numAlignments = 1 + random.nextInt(6);
+            for (int j = 0; j < numAlignments; j++) {
+                SAMRecord record = new SAMRecord(header);
+                record.setReadName("probe" + i);
+                record.setReferenceName(CHROMOSOMES[random.nextInt(CHROMOSOMES.length)]);
+                record.setAlignmentStart(1 + random.nextInt(CHROMOSOME_LENGTH - 5000));
+                record.setCigarString(random.nextInt(5) == 0 ? "20M1500N20M" : "40M");
+                record.setReadNegativeStrandFlag(random.nextBoolean());
+                record.setReadString(bases);
+                record.setBaseQualityString("IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII");
+                records.add(record);
+            }
+        }
+        records.sort(Comparator.comparingInt(SAMRecord::getReferenceIndex)
+                .thenComparingInt(SAMRecord::getAlignmentStart));
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                .makeBAMWriter(header, true, new File(folder.getRoot(), "probes.bam"))) {
+            records.forEach(writer::addAlignment);
+        }
+    }
+
+    private static int[] sortedStarts(Random random, int n, int bound) {
+        int[] rtrn = new int[n];
+        for (int i = 0; i < n; i++) {
+            rtrn[i] = random.nextInt(bound);
+        }
+        Arrays.sort(rtrn);
+        return rtrn;
+    }
+
+    private static String randomBases(Random random, int length) {
+        StringBuilder rtrn = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            rtrn.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return rtrn.toString();
+    }
+
+    private File writeBam(int numAlignments) throws Exception {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 10000000));
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        File rtrn = folder.newFile("probes.bam");
+        try (SAMFileWriter writer = new SAMFileWriterFactory()
+                .makeBAMWriter(header, true, rtrn)) {
+            for (int i = 0; i < numAlignments; i++) {
+                SAMRecord record = new SAMRecord(header);
+                record.setReadName("probe" + (i / 4));
+                record.setReferenceName("chr1");
+                record.setAlignmentStart(1 + 50 * i);
+                record.setCigarString("20M");
+                record.setReadString("ACGTACGTACGTACGTACGT");
+                record.setBaseQualityString("IIIIIIIIIIIIIIIIIIII");
+                writer.addAlignment(record);
+            }
+        }
+        return rtrn;
+    }
+}